@@ -0,0 +1,135 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+/**
+ * A binary mask packed one bit per pixel into 64-bit words, row by row (bit x of a row is bit
+ * x &amp; 63 of word x / 64). A 3x3 erode or dilate then touches 64 pixels per operation, and
+ * the inner loops are plain shifts and ANDs over long arrays that C2 can unroll and vectorise.
+ */
+public final class BitMask {
+    int width;
+    int height;
+    int wordsPerRow;
+    long[] bits = new long[0];
+    private long[] scratch = new long[0];
+    private byte[] rowBuffer = new byte[0];
+
+    private void resize(int maskWidth, int maskHeight) {
+        width = maskWidth;
+        height = maskHeight;
+        wordsPerRow = (maskWidth + 63) >>> 6;
+        int words = wordsPerRow * maskHeight;
+        if (bits.length < words) {
+            bits = new long[words];
+            scratch = new long[words];
+        }
+    }
+
+    /**
+     * Pack an 8-bit mask, treating any non zero pixel as set.
+     */
+    public void fromMat(Mat mask) {
+        resize(mask.cols(), mask.rows());
+        if (rowBuffer.length < width) {
+            rowBuffer = new byte[width];
+        }
+        byte[] row = rowBuffer;
+        for (int y = 0; y < height; y++) {
+            mask.get(y, 0, row);
+            int base = y * wordsPerRow;
+            for (int i = 0; i < wordsPerRow; i++) {
+                long word = 0;
+                int start = i << 6;
+                int end = Math.min(width, start + 64);
+                for (int x = start; x < end; x++) {
+                    word |= (long) ((row[x] | -row[x]) >>> 31) << (x - start);
+                }
+                bits[base + i] = word;
+            }
+        }
+    }
+
+    /**
+     * Unpack into an 8-bit mask, 255 for set pixels.
+     */
+    public void toMat(Mat dst) {
+        dst.create(height, width, CvType.CV_8UC1);
+        if (rowBuffer.length < width) {
+            rowBuffer = new byte[width];
+        }
+        byte[] row = rowBuffer;
+        for (int y = 0; y < height; y++) {
+            int base = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) -((bits[base + (x >>> 6)] >>> (x & 63)) & 1);
+            }
+            dst.put(y, 0, row, 0, width);
+        }
+    }
+
+    /**
+     * 3x3 square erode of src into this mask, the same as {@code Imgproc.erode} with BORDER_CONSTANT.
+     * @param borderSet whether pixels outside the frame count as set. OpenCV's default border value
+     *                  erodes as set; GRIP's border value of -1 saturates to 0, i.e. unset.
+     */
+    public void erode(BitMask src, boolean borderSet) {
+        morph(src, true, borderSet);
+    }
+
+    /**
+     * 3x3 square dilate of src into this mask, the same as {@code Imgproc.dilate} with BORDER_CONSTANT.
+     * @param borderSet whether pixels outside the frame count as set (OpenCV's default is unset).
+     */
+    public void dilate(BitMask src, boolean borderSet) {
+        morph(src, false, borderSet);
+    }
+
+    private void morph(BitMask src, boolean erode, boolean borderSet) {
+        resize(src.width, src.height);
+        final int words = wordsPerRow;
+        final long edge = borderSet ? -1L : 0L;
+        final long lastMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        final long[] in = src.bits;
+        final long[] rows = scratch;
+
+        // horizontal pass: combine every pixel with its left and right neighbour
+        for (int y = 0; y < height; y++) {
+            int base = y * words;
+            for (int i = 0; i < words; i++) {
+                long word = in[base + i];
+                if (i == words - 1) {
+                    // padding past the right edge behaves like the border
+                    word = (word & lastMask) | (edge & ~lastMask);
+                }
+                long previous = i == 0 ? edge : in[base + i - 1];
+                long next = i == words - 1 ? edge : in[base + i + 1];
+                long left = (word << 1) | (previous >>> 63);
+                long right = (word >>> 1) | (next << 63);
+                rows[base + i] = erode ? word & left & right : word | left | right;
+            }
+        }
+
+        // vertical pass: combine every row with the rows above and below
+        final long[] out = bits;
+        for (int y = 0; y < height; y++) {
+            int base = y * words;
+            int above = base - words;
+            int below = base + words;
+            boolean top = y == 0;
+            boolean bottom = y == height - 1;
+            for (int i = 0; i < words; i++) {
+                long up = top ? edge : rows[above + i];
+                long down = bottom ? edge : rows[below + i];
+                long mid = rows[base + i];
+                out[base + i] = erode ? up & mid & down : up | mid | down;
+            }
+            out[base + words - 1] &= lastMask;
+        }
+    }
+}
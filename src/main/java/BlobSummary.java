@@ -0,0 +1,44 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Filters blobs on the area, size and ratio limits of a config and accumulates the extremal X of
+ * the ones that pass. Reused from frame to frame so the blob steps do not allocate.
+ */
+final class BlobSummary implements RunLengthMask.BlobVisitor {
+    private PipelineConfig config;
+    private int count;
+    private int minX;
+    private int maxX;
+
+    void reset(PipelineConfig pipelineConfig) {
+        config = pipelineConfig;
+        count = 0;
+        minX = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+    }
+
+    @Override
+    public void blob(int x, int y, int width, int height, int area) {
+        if (width < config.minWidth || width > config.maxWidth) return;
+        if (height < config.minHeight || height > config.maxHeight) return;
+        if (area < config.minArea) return;
+        final double ratio = width / (double) height;
+        if (ratio < config.minRatio || ratio > config.maxRatio) return;
+        count++;
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x + width - 1);
+    }
+
+    PipelineResult result(long frameTime, int blobCount) {
+        if (count == 0) {
+            return new PipelineResult(config.name, frameTime, blobCount, blobCount, 0, -1, -1);
+        }
+        return new PipelineResult(config.name, frameTime, blobCount, blobCount, count, minX, maxX);
+    }
+}
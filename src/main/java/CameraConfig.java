@@ -0,0 +1,47 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoMode;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Settings for one camera, as read from the config file. Unset values are null (or 0 for the
+ * video mode) and leave the camera's own default alone.
+ */
+public final class CameraConfig {
+    public final String name;
+    public final String path;
+    public final VideoMode.PixelFormat pixelFormat;
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final Integer brightness;
+    public final CameraSetting whiteBalance;
+    public final CameraSetting exposure;
+    /** Raw camera properties by name; values are Integer, Boolean or String. */
+    public final Map<String, Object> properties;
+    /** MJPEG stream properties by name; values are Integer, Boolean or String. */
+    public final Map<String, Object> streamProperties;
+
+    CameraConfig(String name, String path, VideoMode.PixelFormat pixelFormat, int width, int height, int fps,
+                 Integer brightness, CameraSetting whiteBalance, CameraSetting exposure,
+                 Map<String, Object> properties, Map<String, Object> streamProperties) {
+        this.name = name;
+        this.path = path;
+        this.pixelFormat = pixelFormat;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.brightness = brightness;
+        this.whiteBalance = whiteBalance;
+        this.exposure = exposure;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.streamProperties = Collections.unmodifiableMap(streamProperties);
+    }
+}
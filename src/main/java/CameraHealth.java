@@ -0,0 +1,101 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoSource;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liveness of one camera, fed by the capture stages of the runners reading from it.
+ *
+ * <p>A camera is stale when it has gone several grab intervals without a frame, measured against
+ * the slowest interval any of its active runners is governed to (search rate, idle rate and the
+ * CPU governor's scaling all stretch it), or when several grabs in a row have failed. Runners
+ * that are paused or waiting for their multiplexer turn are not asking for frames and don't count.
+ */
+public final class CameraHealth {
+    enum Status {OK, STALE, DISCONNECTED}
+
+    /** Grab intervals without a frame before a camera is stale. */
+    private static final int STALE_INTERVALS = 3;
+    /** Never stale sooner than this, whatever the frame rate. */
+    private static final long MIN_STALE_NANOS = 1_500_000_000L;
+    /** Consecutive failed grabs before a camera is stale; one can fail on a USB hiccup. */
+    private static final int STALE_FAILURES = 3;
+    private static final long RECONNECT_WAIT_MILLIS = 5000;
+
+    final VideoSource camera;
+    final List<StagedPipelineRunner> runners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile long lastFrame = System.nanoTime();
+    private final AtomicLong failedGrabs = new AtomicLong();
+
+    CameraHealth(VideoSource camera) {
+        this.camera = camera;
+    }
+
+    void frameGrabbed(long now) {
+        lastFrame = now;
+        failedGrabs.set(0);
+    }
+
+    void grabFailed() {
+        failedGrabs.incrementAndGet();
+    }
+
+    Status status(long now) {
+        if (!camera.isConnected()) {
+            return Status.DISCONNECTED;
+        }
+        long slowestInterval = 0;
+        for (StagedPipelineRunner runner : runners) {
+            slowestInterval = Math.max(slowestInterval, runner.grabIntervalNanos(now));
+        }
+        if (slowestInterval == 0) {
+            // nobody is asking this camera for frames, so none arriving is expected
+            return Status.OK;
+        }
+        long staleNanos = Math.max(MIN_STALE_NANOS, STALE_INTERVALS * slowestInterval
+                + (long) (StagedPipelineRunner.GRAB_TIMEOUT_SECONDS * 1e9));
+        if (now - lastFrame > staleNanos || failedGrabs.get() >= STALE_FAILURES) {
+            return Status.STALE;
+        }
+        return Status.OK;
+    }
+
+    /**
+     * Close and reopen the camera on a background thread, unless a reconnect is already running.
+     * The other cameras and pipelines are untouched.
+     */
+    void reconnect() {
+        if (!reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                System.err.println("Reconnecting camera '" + camera.getName() + "'");
+                camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kForceClose);
+                Thread.sleep(500);
+                camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+                // give the camera time to enumerate and deliver a frame before trying again
+                long deadline = System.currentTimeMillis() + RECONNECT_WAIT_MILLIS;
+                while (System.currentTimeMillis() < deadline && status(System.nanoTime()) != Status.OK) {
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                reconnecting.set(false);
+            }
+        }, camera.getName() + "-reconnect");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
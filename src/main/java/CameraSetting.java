@@ -0,0 +1,23 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * A camera setting that is either left to the camera, automatic, held at its current value, or
+ * set to a manual value.
+ */
+public final class CameraSetting {
+    public enum Mode {AUTO, HOLD, MANUAL}
+
+    public final Mode mode;
+    public final int value;
+
+    CameraSetting(Mode mode, int value) {
+        this.mode = mode;
+        this.value = value;
+    }
+}
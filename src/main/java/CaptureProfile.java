@@ -0,0 +1,45 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Camera exposure, white balance and brightness a pipeline wants its frames taken with. A null
+ * setting keeps the camera's value from the config file.
+ */
+public final class CaptureProfile {
+    /** The camera as configured. */
+    public static final CaptureProfile NORMAL = new CaptureProfile("normal", null, null, null);
+    /** Short exposure and fixed white balance, so only lit retroreflective tape stands out. */
+    public static final CaptureProfile DARK = new CaptureProfile("dark",
+            new CameraSetting(CameraSetting.Mode.MANUAL, 1),
+            new CameraSetting(CameraSetting.Mode.MANUAL, 4500), 10);
+
+    public final String name;
+    public final CameraSetting exposure;
+    public final CameraSetting whiteBalance;
+    public final Integer brightness;
+
+    CaptureProfile(String name, CameraSetting exposure, CameraSetting whiteBalance, Integer brightness) {
+        this.name = name;
+        this.exposure = exposure;
+        this.whiteBalance = whiteBalance;
+        this.brightness = brightness;
+    }
+
+    /**
+     * Look up a built in profile by name, ignoring case.
+     * @return the profile, or null if there is none with that name.
+     */
+    public static CaptureProfile forName(String name) {
+        for (CaptureProfile profile : new CaptureProfile[] {NORMAL, DARK}) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
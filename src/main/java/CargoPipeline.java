@@ -0,0 +1,16 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Cargo pipeline, generated by GRIP.
+ */
+public class CargoPipeline extends ConfiguredPipeline {
+    public CargoPipeline() {
+        super(PipelineConfig.CARGO);
+    }
+}
@@ -0,0 +1,510 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import edu.wpi.cscore.VideoMode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the config file in one streaming pass, checking every value as it goes. Errors carry the
+ * JSON path of the value (e.g. {@code $.cameras[0].fps}). Unknown keys are skipped with a
+ * warning so files written by newer tools still load.
+ */
+final class ConfigReader {
+    private final Path file;
+    private final JsonReader reader;
+
+    private ConfigReader(Path file, JsonReader reader) {
+        this.file = file;
+        this.reader = reader;
+    }
+
+    static VisionConfig read(Path file) throws IOException, ConfigException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file))) {
+            ConfigReader configReader = new ConfigReader(file, reader);
+            try {
+                return configReader.readTop();
+            } catch (MalformedJsonException | EOFException ex) {
+                throw new ConfigException(reader.getPath(), "malformed JSON: " + ex.getMessage());
+            }
+        }
+    }
+
+    private VisionConfig readTop() throws IOException, ConfigException {
+        expect(JsonToken.BEGIN_OBJECT, "an object");
+        Integer team = null;
+        boolean server = false;
+        List<CameraConfig> cameras = null;
+        Map<String, PipelineConfig> pipelines = new LinkedHashMap<>();
+        for (PipelineConfig builtIn : new PipelineConfig[] {PipelineConfig.CARGO, PipelineConfig.HATCH,
+                PipelineConfig.LED}) {
+            pipelines.put(builtIn.name, builtIn);
+        }
+        PerformanceConfig performance = PerformanceConfig.DEFAULT;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            switch (key) {
+                case "team":
+                    team = readInt(1, 9999);
+                    break;
+                case "ntmode":
+                    String path = reader.getPath();
+                    String mode = readString();
+                    if ("client".equalsIgnoreCase(mode)) {
+                        server = false;
+                    } else if ("server".equalsIgnoreCase(mode)) {
+                        server = true;
+                    } else {
+                        throw new ConfigException(path, "ntmode must be \"client\" or \"server\", not \"" + mode + "\"");
+                    }
+                    break;
+                case "cameras":
+                    cameras = readCameras();
+                    break;
+                case "pipelines":
+                    readPipelines(pipelines);
+                    break;
+                case "performance":
+                    performance = readPerformance();
+                    break;
+                default:
+                    skipUnknown();
+            }
+        }
+        reader.endObject();
+
+        if (team == null) {
+            throw new ConfigException("$", "missing team number");
+        }
+        if (cameras == null) {
+            throw new ConfigException("$", "missing cameras");
+        }
+        return new VisionConfig(team, server, cameras, pipelines, performance);
+    }
+
+    private List<CameraConfig> readCameras() throws IOException, ConfigException {
+        expect(JsonToken.BEGIN_ARRAY, "an array of cameras");
+        List<CameraConfig> cameras = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String path = reader.getPath();
+            CameraConfig camera = readCamera();
+            for (CameraConfig other : cameras) {
+                if (other.name.equals(camera.name)) {
+                    throw new ConfigException(path, "duplicate camera name '" + camera.name + "'");
+                }
+            }
+            cameras.add(camera);
+        }
+        reader.endArray();
+        return cameras;
+    }
+
+    private CameraConfig readCamera() throws IOException, ConfigException {
+        String cameraPath = reader.getPath();
+        expect(JsonToken.BEGIN_OBJECT, "a camera object");
+        String name = null;
+        String path = null;
+        VideoMode.PixelFormat pixelFormat = null;
+        int width = 0;
+        int height = 0;
+        int fps = 0;
+        Integer brightness = null;
+        CameraSetting whiteBalance = null;
+        CameraSetting exposure = null;
+        Map<String, Object> properties = new LinkedHashMap<>();
+        Map<String, Object> streamProperties = new LinkedHashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            switch (key) {
+                case "name":
+                    name = readString();
+                    break;
+                case "path":
+                    path = readString();
+                    break;
+                case "pixel format":
+                    pixelFormat = readPixelFormat();
+                    break;
+                case "width":
+                    width = readInt(1, 4096);
+                    break;
+                case "height":
+                    height = readInt(1, 4096);
+                    break;
+                case "fps":
+                    fps = readInt(1, 260);
+                    break;
+                case "brightness":
+                    brightness = readInt(0, 100);
+                    break;
+                case "white balance":
+                    whiteBalance = readCameraSetting(0, 10000);
+                    break;
+                case "exposure":
+                    exposure = readCameraSetting(0, 100);
+                    break;
+                case "properties":
+                    readProperties(properties);
+                    break;
+                case "stream":
+                    expect(JsonToken.BEGIN_OBJECT, "an object");
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("properties".equals(reader.nextName())) {
+                            readProperties(streamProperties);
+                        } else {
+                            skipUnknown();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    skipUnknown();
+            }
+        }
+        reader.endObject();
+
+        if (name == null || name.isEmpty()) {
+            throw new ConfigException(cameraPath, "missing camera name");
+        }
+        if (path == null || path.isEmpty()) {
+            throw new ConfigException(cameraPath, "camera '" + name + "': missing path");
+        }
+        if ((width == 0) != (height == 0)) {
+            throw new ConfigException(cameraPath, "camera '" + name + "': width and height must be set together");
+        }
+        return new CameraConfig(name, path, pixelFormat, width, height, fps, brightness, whiteBalance,
+                exposure, properties, streamProperties);
+    }
+
+    private VideoMode.PixelFormat readPixelFormat() throws IOException, ConfigException {
+        String path = reader.getPath();
+        String format = readString();
+        for (VideoMode.PixelFormat candidate : VideoMode.PixelFormat.values()) {
+            if (candidate != VideoMode.PixelFormat.kUnknown && candidate.name().substring(1).equalsIgnoreCase(format)) {
+                return candidate;
+            }
+        }
+        throw new ConfigException(path, "unknown pixel format '" + format + "'");
+    }
+
+    /**
+     * "auto", "hold", or a manual value (a number, or a string holding one).
+     */
+    private CameraSetting readCameraSetting(int min, int max) throws IOException, ConfigException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            return new CameraSetting(CameraSetting.Mode.MANUAL, readInt(min, max));
+        }
+        String path = reader.getPath();
+        String setting = readString();
+        if ("auto".equalsIgnoreCase(setting)) {
+            return new CameraSetting(CameraSetting.Mode.AUTO, 0);
+        }
+        if ("hold".equalsIgnoreCase(setting)) {
+            return new CameraSetting(CameraSetting.Mode.HOLD, 0);
+        }
+        try {
+            int value = Integer.parseInt(setting.trim());
+            if (value < min || value > max) {
+                throw new ConfigException(path, "must be between " + min + " and " + max + ", not " + value);
+            }
+            return new CameraSetting(CameraSetting.Mode.MANUAL, value);
+        } catch (NumberFormatException ex) {
+            throw new ConfigException(path, "must be \"auto\", \"hold\" or a number, not \"" + setting + "\"");
+        }
+    }
+
+    private void readProperties(Map<String, Object> properties) throws IOException, ConfigException {
+        expect(JsonToken.BEGIN_ARRAY, "an array of properties");
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String propertyPath = reader.getPath();
+            expect(JsonToken.BEGIN_OBJECT, "a property object");
+            String name = null;
+            Object value = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if ("name".equals(key)) {
+                    name = readString();
+                } else if ("value".equals(key)) {
+                    value = readPropertyValue();
+                } else {
+                    skipUnknown();
+                }
+            }
+            reader.endObject();
+            if (name == null || value == null) {
+                throw new ConfigException(propertyPath, "a property needs a name and a value");
+            }
+            properties.put(name, value);
+        }
+        reader.endArray();
+    }
+
+    private Object readPropertyValue() throws IOException, ConfigException {
+        String path = reader.getPath();
+        switch (reader.peek()) {
+            case NUMBER:
+                double number = reader.nextDouble();
+                if (number != Math.rint(number)) {
+                    throw new ConfigException(path, "property values must be whole numbers, not " + number);
+                }
+                return (int) number;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case STRING:
+                return reader.nextString();
+            default:
+                throw new ConfigException(path, "expected a number, boolean or string but found " + reader.peek());
+        }
+    }
+
+    private void readPipelines(Map<String, PipelineConfig> pipelines) throws IOException, ConfigException {
+        expect(JsonToken.BEGIN_OBJECT, "an object of pipelines by name");
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            PipelineConfig builtIn = PipelineConfig.forName(name);
+            if (builtIn == null) {
+                throw new ConfigException(reader.getPath(), "unknown pipeline '" + name + "'");
+            }
+            pipelines.put(builtIn.name, readPipeline(builtIn.toBuilder()));
+        }
+        reader.endObject();
+    }
+
+    private PipelineConfig readPipeline(PipelineConfig.Builder builder) throws IOException, ConfigException {
+        expect(JsonToken.BEGIN_OBJECT, "a pipeline object");
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            double[] range;
+            switch (key) {
+                case "hue":
+                    range = readRange(0, 180);
+                    builder.hue(range[0], range[1]);
+                    break;
+                case "saturation":
+                    range = readRange(0, 255);
+                    builder.saturation(range[0], range[1]);
+                    break;
+                case "value":
+                    range = readRange(0, 255);
+                    builder.value(range[0], range[1]);
+                    break;
+                case "erodeIterations":
+                    builder.erodeIterations(readInt(0, 10));
+                    break;
+                case "morphology":
+                    builder.morphology(readEnum(PipelineConfig.Morphology.class));
+                    break;
+                case "extraction":
+                    builder.extraction(readEnum(PipelineConfig.Extraction.class));
+                    break;
+                case "minArea":
+                    builder.minArea(readDouble(0, Double.MAX_VALUE));
+                    break;
+                case "minPerimeter":
+                    builder.minPerimeter(readDouble(0, Double.MAX_VALUE));
+                    break;
+                case "width":
+                    range = readRange(0, Double.MAX_VALUE);
+                    builder.width(range[0], range[1]);
+                    break;
+                case "height":
+                    range = readRange(0, Double.MAX_VALUE);
+                    builder.height(range[0], range[1]);
+                    break;
+                case "ratio":
+                    range = readRange(0, Double.MAX_VALUE);
+                    builder.ratio(range[0], range[1]);
+                    break;
+                case "adaptive":
+                    readAdaptive(builder);
+                    break;
+                case "profile":
+                    String profilePath = reader.getPath();
+                    String profileName = readString();
+                    CaptureProfile profile = CaptureProfile.forName(profileName);
+                    if (profile == null) {
+                        throw new ConfigException(profilePath, "profile must be \"normal\" or \"dark\", not \""
+                                + profileName + "\"");
+                    }
+                    builder.profile(profile);
+                    break;
+                default:
+                    skipUnknown();
+            }
+        }
+        reader.endObject();
+        return builder.build();
+    }
+
+    /**
+     * false, true, or an object of adaptation settings (any left out keep the built in values).
+     */
+    private void readAdaptive(PipelineConfig.Builder builder) throws IOException, ConfigException {
+        PipelineConfig current = builder.build();
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            builder.adaptive(reader.nextBoolean(), current.referenceValue, current.maxValueShift,
+                    current.maxSaturationShift, current.adaptRate);
+            return;
+        }
+        double reference = current.referenceValue;
+        double maxValue = current.maxValueShift;
+        double maxSaturation = current.maxSaturationShift;
+        double rate = current.adaptRate;
+        expect(JsonToken.BEGIN_OBJECT, "true, false or an object");
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            switch (key) {
+                case "reference":
+                    reference = readDouble(0, 255);
+                    break;
+                case "maxValueShift":
+                    maxValue = readDouble(0, 255);
+                    break;
+                case "maxSaturationShift":
+                    maxSaturation = readDouble(0, 255);
+                    break;
+                case "rate":
+                    rate = readDouble(0.001, 1);
+                    break;
+                default:
+                    skipUnknown();
+            }
+        }
+        reader.endObject();
+        builder.adaptive(true, reference, maxValue, maxSaturation, rate);
+    }
+
+    private PerformanceConfig readPerformance() throws IOException, ConfigException {
+        PerformanceConfig defaults = PerformanceConfig.DEFAULT;
+        double cpuCeiling = defaults.cpuCeiling;
+        double searchFps = defaults.searchFps;
+        double lostSeconds = defaults.lostSeconds;
+        int warmUpFrames = defaults.warmUpFrames;
+        boolean debugStreams = defaults.debugStreams;
+        int latencyPort = defaults.latencyPort;
+        expect(JsonToken.BEGIN_OBJECT, "an object");
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            switch (key) {
+                case "cpuCeiling":
+                    cpuCeiling = readDouble(0.1, 1);
+                    break;
+                case "searchFps":
+                    searchFps = readDouble(0.5, 120);
+                    break;
+                case "lostSeconds":
+                    lostSeconds = readDouble(0, 60);
+                    break;
+                case "warmUpFrames":
+                    warmUpFrames = readInt(0, 1000);
+                    break;
+                case "debugStreams":
+                    expect(JsonToken.BOOLEAN, "true or false");
+                    debugStreams = reader.nextBoolean();
+                    break;
+                case "latencyPort":
+                    latencyPort = readInt(0, 65535);
+                    break;
+                default:
+                    skipUnknown();
+            }
+        }
+        reader.endObject();
+        return new PerformanceConfig(cpuCeiling, searchFps, lostSeconds, warmUpFrames, debugStreams,
+                latencyPort);
+    }
+
+    private void expect(JsonToken token, String what) throws IOException, ConfigException {
+        JsonToken found = reader.peek();
+        if (found != token) {
+            throw new ConfigException(reader.getPath(), "expected " + what + " but found " + found);
+        }
+    }
+
+    private String readString() throws IOException, ConfigException {
+        expect(JsonToken.STRING, "a string");
+        return reader.nextString();
+    }
+
+    private double readDouble(double min, double max) throws IOException, ConfigException {
+        String path = reader.getPath();
+        expect(JsonToken.NUMBER, "a number");
+        double value = reader.nextDouble();
+        if (value < min || value > max) {
+            throw new ConfigException(path, "must be between " + min + " and " + max + ", not " + value);
+        }
+        return value;
+    }
+
+    private int readInt(int min, int max) throws IOException, ConfigException {
+        String path = reader.getPath();
+        double value = readDouble(min, max);
+        if (value != Math.rint(value)) {
+            throw new ConfigException(path, "must be a whole number, not " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * A [min, max] pair inside the given limits.
+     */
+    private double[] readRange(double min, double max) throws IOException, ConfigException {
+        String path = reader.getPath();
+        expect(JsonToken.BEGIN_ARRAY, "a [min, max] pair");
+        reader.beginArray();
+        double low = readDouble(min, max);
+        double high = readDouble(min, max);
+        if (reader.hasNext()) {
+            throw new ConfigException(path, "expected a [min, max] pair");
+        }
+        reader.endArray();
+        if (low > high) {
+            throw new ConfigException(path, "min " + low + " is above max " + high);
+        }
+        return new double[] {low, high};
+    }
+
+    private <E extends Enum<E>> E readEnum(Class<E> type) throws IOException, ConfigException {
+        String path = reader.getPath();
+        String value = readString();
+        for (E candidate : type.getEnumConstants()) {
+            if (candidate.name().equalsIgnoreCase(value)) {
+                return candidate;
+            }
+        }
+        throw new ConfigException(path, "must be one of " + Arrays.toString(type.getEnumConstants())
+                + ", not '" + value + "'");
+    }
+
+    private void skipUnknown() throws IOException {
+        System.err.println("config warning in '" + file + "': ignoring unknown key " + reader.getPath());
+        reader.skipValue();
+    }
+}
@@ -0,0 +1,74 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+/**
+ * Watches the config file and hands every valid new version to a listener, on its own thread.
+ * An edit that doesn't parse is reported and ignored; the last good config stays in force.
+ */
+final class ConfigWatcher {
+    private final Path file;
+    private final Consumer<VisionConfig> listener;
+
+    ConfigWatcher(Path file, Consumer<VisionConfig> listener) {
+        this.file = file.toAbsolutePath();
+        this.listener = listener;
+    }
+
+    void start() {
+        Thread thread = new Thread(this::watch, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try (WatchService watcher = file.getFileSystem().newWatchService()) {
+            file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= file.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    // editors write in several steps; let them finish
+                    Thread.sleep(200);
+                    for (WatchKey extra = watcher.poll(); extra != null; extra = watcher.poll()) {
+                        extra.pollEvents();
+                        extra.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("could not watch '" + file + "': " + ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reload() {
+        try {
+            VisionConfig config = ConfigReader.read(file);
+            System.out.println("Reloaded '" + file + "'");
+            listener.accept(config);
+        } catch (IOException ex) {
+            System.err.println("could not reload '" + file + "': " + ex);
+        } catch (ConfigException ex) {
+            System.err.println("config error in '" + file + "', keeping the previous config: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.vision.VisionPipeline;
+import edu.wpi.first.vision.VisionThread;
+import org.opencv.core.*;
+
+/**
+ * Adapts a {@link PipelineConfig} to the WPILib {@link VisionPipeline} interface for use with a
+ * {@link VisionThread}. It owns a private context, and listeners should only read {@link #result()}.
+ */
+public class ConfiguredPipeline implements VisionPipeline {
+    private final PipelineConfig config;
+    private final PipelineContext context = new PipelineContext();
+    private volatile PipelineResult result;
+
+    public ConfiguredPipeline(PipelineConfig config) {
+        this.config = config;
+        this.result = PipelineResult.empty(config.name, 0);
+    }
+
+    /**
+     * This is the primary method that runs the entire pipeline and updates the result.
+     */
+    @Override
+    public void process(Mat source0) {
+        result = GripPipeline.process(config, context, source0, System.nanoTime());
+    }
+
+    public PipelineConfig config() {
+        return config;
+    }
+
+    /**
+     * @return The result of the most recently processed frame.
+     */
+    public PipelineResult result() {
+        return result;
+    }
+
+    /**
+     * @return The hulls of the most recently processed frame. Only read this from the thread that
+     *     calls {@link #process(Mat)}, e.g. in the VisionThread listener, before the next frame.
+     */
+    public HullBuffer hulls() {
+        return context.hulls();
+    }
+}
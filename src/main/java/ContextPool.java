@@ -0,0 +1,61 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded set of {@link PipelineContext}s shared by the threads processing frames, so the
+ * number of frames in flight (and the native memory they hold) has a fixed upper limit.
+ */
+public final class ContextPool {
+    private final BlockingQueue<PipelineContext> free;
+    private final PipelineContext[] all;
+
+    public ContextPool(int size) {
+        free = new ArrayBlockingQueue<>(size);
+        all = new PipelineContext[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = new PipelineContext();
+            free.add(all[i]);
+        }
+    }
+
+    /**
+     * Take a context, waiting for one to be returned if all are in use.
+     */
+    public PipelineContext acquire() throws InterruptedException {
+        return free.take();
+    }
+
+    public void release(PipelineContext context) {
+        free.add(context);
+    }
+
+    /**
+     * Run one frame through a pipeline on a pooled context.
+     */
+    public PipelineResult process(PipelineConfig config, Mat frame, long frameTime) throws InterruptedException {
+        PipelineContext context = acquire();
+        try {
+            return GripPipeline.process(config, context, frame, frameTime);
+        } finally {
+            release(context);
+        }
+    }
+
+    /**
+     * Free the native memory of every context in the pool. Only call this while no frames are in flight.
+     */
+    public void releaseAll() {
+        for (PipelineContext context : all) {
+            context.release();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.first.cameraserver.CameraServer;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a runner's masks to the dashboard from its own thread, so encoding for the stream
+ * never holds up the pipeline. It shares the runner's {@link FrameSlot}s instead of copying:
+ * the publish stage hands it a slot with an extra owner, and only the newest slot waiting is
+ * kept; a slot it is done with goes back through its own queue. The one copy left is the
+ * source's own, of each mask it is handed, and that is counted.
+ */
+final class DebugStream {
+    private final CvSource source;
+    private final AtomicReference<FrameSlot> pending = new AtomicReference<>();
+    private final SpscQueue<FrameSlot> returned;
+    private final AtomicLong copiedBytes;
+    private final Thread thread;
+
+    /**
+     * @param returned receives the slots whose last owner was this stream.
+     * @param copiedBytes counts the bytes of every mask the source copies.
+     */
+    DebugStream(String name, int width, int height, SpscQueue<FrameSlot> returned, AtomicLong copiedBytes) {
+        this.source = CameraServer.getInstance().putVideo(name, width, height);
+        this.returned = returned;
+        this.copiedBytes = copiedBytes;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Called by the publish stage. Adds an owner to the slot.
+     * @return an older slot that was never streamed, with the owner reference it still holds.
+     */
+    FrameSlot offer(FrameSlot slot) {
+        slot.retain();
+        FrameSlot dropped = pending.getAndSet(slot);
+        LockSupport.unpark(thread);
+        return dropped;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            FrameSlot slot = pending.getAndSet(null);
+            if (slot == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (slot.grabbed) {
+                Mat mask = slot.context.mask();
+                source.putFrame(mask);
+                StagedPipelineRunner.countCopy(copiedBytes, mask);
+            }
+            if (slot.disown()) {
+                returned.offer(slot);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how often a pipeline processes a frame. A pipeline runs at full rate while its target
+ * is in view and it is requested over NetworkTables, drops to a search rate once the target has
+ * been lost for a while, and to an idle rate when not requested. The rate is further scaled down
+ * by the {@link PerformanceGovernor} when the CPU runs hot. Requesting a pipeline wakes its
+ * capture stage immediately.
+ */
+public final class FrameRateGovernor {
+    private final double fullFps;
+    private final double searchFps;
+    private final double idleFps;
+    private final long lostNanos;
+    private volatile boolean requested = true;
+    private volatile long lastSeen = System.nanoTime();
+    private volatile double cpuScale = 1;
+    private volatile Thread waiter;
+    private long lastFrame;
+
+    /**
+     * @param fullFps rate while tracking, normally the camera's frame rate. The CPU scale multiplies
+     *                every rate, so this one has to be finite for the ceiling to slow a tracking pipeline.
+     * @param searchFps rate once the target has not been seen for lostSeconds.
+     * @param idleFps rate while the pipeline is not requested, or 0 if its runner pauses instead.
+     */
+    public FrameRateGovernor(double fullFps, double searchFps, double idleFps, double lostSeconds) {
+        if (Double.isInfinite(fullFps) || fullFps <= 0) {
+            throw new IllegalArgumentException("full rate must be a positive number of frames per second");
+        }
+        this.fullFps = fullFps;
+        this.searchFps = searchFps;
+        this.idleFps = idleFps;
+        this.lostNanos = (long) (lostSeconds * 1e9);
+    }
+
+    public void setRequested(boolean request) {
+        requested = request;
+        if (request) {
+            lastSeen = System.nanoTime();
+        }
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void setCpuScale(double scale) {
+        cpuScale = scale;
+    }
+
+    /**
+     * Called by the publish stage with every result.
+     */
+    void onResult(PipelineResult result) {
+        if (result.found()) {
+            lastSeen = result.frameTime;
+        }
+    }
+
+    /**
+     * @return The rate the pipeline should currently run at.
+     */
+    public double targetFps(long now) {
+        double fps;
+        if (!requested) {
+            fps = idleFps;
+        } else if (now - lastSeen > lostNanos) {
+            fps = searchFps;
+        } else {
+            fps = fullFps;
+        }
+        return fps * cpuScale;
+    }
+
+    /**
+     * Called by the capture stage before each grab: wait until the next frame is due.
+     * @return false if the thread was interrupted.
+     */
+    boolean awaitFrame() {
+        waiter = Thread.currentThread();
+        while (true) {
+            long now = System.nanoTime();
+            double fps = targetFps(now);
+            if (fps <= 0) {
+                // not requested and not meant to idle: the runner is pausing
+                return true;
+            }
+            long interval = (long) (1e9 / fps);
+            long remaining = lastFrame + interval - now;
+            if (remaining <= 0) {
+                lastFrame = now;
+                return true;
+            }
+            // wake periodically so a rate change (or a boost) takes effect promptly
+            LockSupport.parkNanos(Math.min(remaining, 50_000_000L));
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preallocated frame buffer plus the scratch context that processes it. Slots circulate
+ * through the stages of a {@link StagedPipelineRunner} so no stage allocates per frame.
+ *
+ * <p>cscore decodes straight into the slot's frame, and the HSV conversion writes into the slot's
+ * own buffer, both allocated once at the camera's size. Anything that wants to look at a slot
+ * after the publish stage (a debug stream, say) takes an owner reference instead of copying the
+ * frame or mask; the slot goes back to the capture stage when its last owner lets go.
+ */
+final class FrameSlot {
+    final Mat frame = new Mat();
+    private final int width;
+    private final int height;
+    private final AtomicInteger owners = new AtomicInteger();
+    final PipelineContext context = new PipelineContext();
+    /** The runner's config when the frame was grabbed. */
+    PipelineConfig config;
+    long frameTime;
+    /** False if the grab failed; the later stages then only pass an invalid result along. */
+    boolean grabbed;
+    PipelineResult result;
+
+    FrameSlot(int width, int height) {
+        this.width = width;
+        this.height = height;
+        allocate();
+    }
+
+    /**
+     * (Re)allocate the frame and the HSV conversion's output at the camera's size. Does nothing if
+     * they already are that size.
+     */
+    void allocate() {
+        if (width > 0 && height > 0) {
+            frame.create(height, width, CvType.CV_8UC3);
+            context.hsv.create(height, width, CvType.CV_8UC3);
+        }
+    }
+
+    /**
+     * Start a new frame owned by the runner alone.
+     */
+    void own() {
+        owners.set(1);
+    }
+
+    /**
+     * Add an owner; it must call {@link #disown()} when done with the frame or context.
+     */
+    void retain() {
+        owners.incrementAndGet();
+    }
+
+    /**
+     * @return true if that was the last owner, and the slot can be reused.
+     */
+    boolean disown() {
+        return owners.decrementAndGet() == 0;
+    }
+
+    void release() {
+        frame.release();
+        context.release();
+    }
+}
@@ -0,0 +1,416 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The steps of the GRIP generated pipelines, run against an immutable {@link PipelineConfig}
+ * with all intermediate state kept in a caller supplied {@link PipelineContext}.
+ */
+public final class GripPipeline {
+    private GripPipeline() {
+    }
+
+    /**
+     * Runs the entire pipeline on a frame.
+     */
+    public static PipelineResult process(PipelineConfig config, PipelineContext context, Mat source0,
+                                         long frameTime) {
+        threshold(config, context, source0);
+        return contours(config, context, frameTime);
+    }
+
+    /**
+     * Runs the pixel steps (HSV threshold and erode), leaving the mask in the context.
+     */
+    public static void threshold(PipelineConfig config, PipelineContext context, Mat source0) {
+        boolean adapt = config.adaptive && context.lighting != null;
+        ThresholdBounds bounds = adapt ? context.lighting.bounds(config) : null;
+        context.appliedThresholds = bounds;
+        Scalar low = context.low;
+        Scalar high = context.high;
+        if (adapt) {
+            set(low, bounds.hueMin, bounds.saturationMin, bounds.valueMin);
+            set(high, bounds.hueMax, bounds.saturationMax, bounds.valueMax);
+        } else {
+            set(low, config.hueMin, config.saturationMin, config.valueMin);
+            set(high, config.hueMax, config.saturationMax, config.valueMax);
+        }
+
+        if (config.extraction == PipelineConfig.Extraction.RUNS) {
+            thresholdRuns(config, context, source0, low, high);
+        } else {
+            thresholdMat(config, context, source0, low, high);
+        }
+        if (adapt) {
+            context.lighting.observe(config, context.hsv);
+        }
+    }
+
+    private static void set(Scalar scalar, double v0, double v1, double v2) {
+        scalar.val[0] = v0;
+        scalar.val[1] = v1;
+        scalar.val[2] = v2;
+    }
+
+    private static void thresholdMat(PipelineConfig config, PipelineContext context, Mat source0,
+                                     Scalar low, Scalar high) {
+        context.maskRuns = null;
+
+        // Step HSV_Threshold0:
+        hsvThreshold(source0, low, high, context.hsv, context.threshold);
+
+        // Step CV_erode0:
+        if (config.erodeIterations > 0 && config.morphology == PipelineConfig.Morphology.BIT_PACKED) {
+            BitMask current = context.bitMask;
+            BitMask spare = context.erodedBits;
+            current.fromMat(context.threshold);
+            for (int i = 0; i < config.erodeIterations; i++) {
+                // GRIP's border value of -1 saturates to 0, so the frame edge erodes
+                spare.erode(current, false);
+                BitMask swap = current;
+                current = spare;
+                spare = swap;
+            }
+            current.toMat(context.eroded);
+            context.mask = context.eroded;
+        } else if (config.erodeIterations > 0) {
+            Point cvErodeAnchor = new Point(-1, -1);
+            int cvErodeBordertype = Core.BORDER_CONSTANT;
+            Scalar cvErodeBordervalue = new Scalar(-1);
+            cvErode(context.threshold, context.kernel, cvErodeAnchor, config.erodeIterations, cvErodeBordertype,
+                    cvErodeBordervalue, context.eroded);
+            context.mask = context.eroded;
+        } else {
+            context.mask = context.threshold;
+        }
+    }
+
+    /**
+     * The threshold and erode steps producing runs instead of a Mat.
+     */
+    private static void thresholdRuns(PipelineConfig config, PipelineContext context, Mat source0,
+                                      Scalar low, Scalar high) {
+        ParallelImageOps.cvtColor(source0, context.hsv, Imgproc.COLOR_BGR2HSV);
+        context.runs.threshold(context.hsv, low, high);
+        RunLengthMask current = context.runs;
+        RunLengthMask spare = context.erodedRuns;
+        for (int i = 0; i < config.erodeIterations; i++) {
+            spare.erode(current);
+            RunLengthMask swap = current;
+            current = spare;
+            spare = swap;
+        }
+        context.maskRuns = current;
+    }
+
+    /**
+     * Runs the contour steps on the mask left by {@link #threshold} and summarises the hulls.
+     */
+    public static PipelineResult contours(PipelineConfig config, PipelineContext context, long frameTime) {
+        PipelineResult result = findTargets(config, context, frameTime);
+        return context.appliedThresholds != null ? result.withThresholds(context.appliedThresholds) : result;
+    }
+
+    private static PipelineResult findTargets(PipelineConfig config, PipelineContext context, long frameTime) {
+        context.hullBuffer.clear();
+        if (config.extraction == PipelineConfig.Extraction.COMPONENTS) {
+            return components(config, context, frameTime);
+        }
+        if (config.extraction == PipelineConfig.Extraction.RUNS) {
+            BlobSummary blobs = context.blobs;
+            blobs.reset(config);
+            int blobCount = context.maskRuns.blobs(blobs);
+            return blobs.result(frameTime, blobCount);
+        }
+        context.releaseContours();
+
+        // Step Find_Contours0:
+        findContours(context.mask, config.retrieval, context.hierarchy, context.contours);
+        int contoursFound = context.contours.size();
+        if (config.retrieval == PipelineConfig.Retrieval.PRUNED) {
+            pruneHoles(context, config.minChildArea);
+        }
+
+        // Step Filter_Contours0:
+        filterContours(context.contours, config, context, context.filtered);
+
+        // Step Convex_Hulls0:
+        convexHulls(context.filtered, context, context.hulls);
+
+        List<VisionTarget> targets = Collections.emptyList();
+        if (config.pairTargets && !context.hulls.isEmpty()) {
+            targets = context.targets.assemble(context.hulls, context.mask.cols(), context.mask.rows(),
+                    config.horizontalFov);
+        }
+        return new PipelineResult(config.name, frameTime, contoursFound, context.contours.size(),
+                context.hullBuffer, targets);
+    }
+
+    /**
+     * Labels the connected white blobs of the mask and filters them straight from the stats table,
+     * without building a contour for any of them.
+     */
+    private static PipelineResult components(PipelineConfig config, PipelineContext context, long frameTime) {
+        int labelCount = Imgproc.connectedComponentsWithStats(context.mask, context.labels, context.stats,
+                context.centroids, 8, CvType.CV_32S);
+        int needed = labelCount * Imgproc.CC_STAT_MAX;
+        if (context.statsBuffer.length < needed) {
+            context.statsBuffer = new int[needed];
+        }
+        int[] stats = context.statsBuffer;
+        context.stats.get(0, 0, stats);
+
+        BlobSummary blobs = context.blobs;
+        blobs.reset(config);
+        // label 0 is the background
+        for (int label = 1; label < labelCount; label++) {
+            int row = label * Imgproc.CC_STAT_MAX;
+            blobs.blob(stats[row + Imgproc.CC_STAT_LEFT], stats[row + Imgproc.CC_STAT_TOP],
+                    stats[row + Imgproc.CC_STAT_WIDTH], stats[row + Imgproc.CC_STAT_HEIGHT],
+                    stats[row + Imgproc.CC_STAT_AREA]);
+        }
+        return blobs.result(frameTime, labelCount - 1);
+    }
+
+    /**
+     * Segment an image based on hue, saturation, and value ranges.
+     *
+     * @param input The image on which to perform the HSL threshold.
+     * @param low The min hue, saturation and value.
+     * @param high The max hue, saturation and value.
+     * @param hsv The image in which to store the HSV conversion of the input.
+     * @param out The image in which to store the output.
+     */
+    private static void hsvThreshold(Mat input, Scalar low, Scalar high, Mat hsv, Mat out) {
+        ParallelImageOps.hsvThreshold(input, low, high, hsv, out);
+    }
+
+    /**
+     * Expands area of lower value in an image.
+     * @param src the Image to erode.
+     * @param kernel the kernel for erosion.
+     * @param anchor the center of the kernel.
+     * @param iterations the number of times to perform the erosion.
+     * @param borderType pixel extrapolation method.
+     * @param borderValue value to be used for a constant border.
+     * @param dst Output Image.
+     */
+    private static void cvErode(Mat src, Mat kernel, Point anchor, double iterations,
+                                int borderType, Scalar borderValue, Mat dst) {
+        ParallelImageOps.erode(src, dst, kernel, anchor, (int)iterations, borderType, borderValue);
+    }
+
+    /**
+     * Finds the contours of the white regions in a binary image.
+     * @param input The binary image to search.
+     * @param retrieval Which contours to return.
+     * @param hierarchy Scratch Mat for the contour hierarchy.
+     * @param contours The list in which to store the contours.
+     */
+    private static void findContours(Mat input, PipelineConfig.Retrieval retrieval, Mat hierarchy,
+                                     List<MatOfPoint> contours) {
+        contours.clear();
+        int mode;
+        if (retrieval == PipelineConfig.Retrieval.EXTERNAL) {
+            mode = Imgproc.RETR_EXTERNAL;
+        }
+        else if (retrieval == PipelineConfig.Retrieval.PRUNED) {
+            mode = Imgproc.RETR_CCOMP;
+        }
+        else {
+            mode = Imgproc.RETR_LIST;
+        }
+        int method = Imgproc.CHAIN_APPROX_SIMPLE;
+        Imgproc.findContours(input, contours, hierarchy, mode, method);
+    }
+
+
+    /**
+     * Drops (and frees) the holes found by RETR_CCOMP whose bounding box is smaller than minHoleArea,
+     * so they never reach the filter step.
+     */
+    private static void pruneHoles(PipelineContext context, double minHoleArea) {
+        ArrayList<MatOfPoint> contours = context.contours;
+        int needed = contours.size() * 4;
+        if (needed == 0) {
+            return;
+        }
+        if (context.hierarchyBuffer.length < needed) {
+            context.hierarchyBuffer = new int[needed];
+        }
+        int[] hierarchy = context.hierarchyBuffer;
+        context.hierarchy.get(0, 0, hierarchy);
+
+        int kept = 0;
+        for (int i = 0; i < contours.size(); i++) {
+            MatOfPoint contour = contours.get(i);
+            // hierarchy entries are [next, previous, first child, parent]
+            boolean hole = hierarchy[i * 4 + 3] >= 0;
+            if (hole && boxArea(contour, context) < minHoleArea) {
+                contour.release();
+            } else {
+                contours.set(kept++, contour);
+            }
+        }
+        contours.subList(kept, contours.size()).clear();
+    }
+
+    /**
+     * Filters out contours that do not meet the criteria of the config.
+     * @param inputContours is the input list of contours
+     * @param config holds the area, perimeter, size, solidity, vertex count and ratio limits
+     * @param context scratch hull indices and point arrays for the solidity check
+     * @param output is the the output list of contours
+     */
+    private static void filterContours(List<MatOfPoint> inputContours, PipelineConfig config,
+                                       PipelineContext context, List<MatOfPoint> output) {
+        output.clear();
+        final MatOfInt hull = context.hullIndices;
+        //operation
+        for (int i = 0; i < inputContours.size(); i++) {
+            final MatOfPoint contour = inputContours.get(i);
+            final int vertices = readPoints(contour, context);
+            final int width = extent(context.contourPoints, vertices, 0);
+            final int height = extent(context.contourPoints, vertices, 1);
+            if (width < config.minWidth || width > config.maxWidth) continue;
+            if (height < config.minHeight || height > config.maxHeight) continue;
+            final double area = Imgproc.contourArea(contour);
+            if (area < config.minArea) continue;
+            if (config.minPerimeter > 0 && perimeter(context.contourPoints, vertices) < config.minPerimeter) continue;
+            Imgproc.convexHull(contour, hull);
+            final double solid = 100 * area / hullArea(context.contourPoints, hull, context);
+            if (solid < config.minSolidity || solid > config.maxSolidity) continue;
+            if (vertices < config.minVertices || vertices > config.maxVertices) continue;
+            final double ratio = width / (double)height;
+            if (ratio < config.minRatio || ratio > config.maxRatio) continue;
+            output.add(contour);
+        }
+    }
+
+    /**
+     * Copy a contour's points into the context's packed x, y scratch array in one bulk read.
+     * @return The number of points.
+     */
+    private static int readPoints(MatOfPoint contour, PipelineContext context) {
+        int count = (int) contour.total();
+        if (context.contourPoints.length < count * 2) {
+            context.contourPoints = new int[count * 2];
+        }
+        if (count > 0) {
+            contour.get(0, 0, context.contourPoints);
+        }
+        return count;
+    }
+
+    /**
+     * The width (axis 0) or height (axis 1) of the bounding box of points read by {@link #readPoints},
+     * as Imgproc.boundingRect computes it. Computed here rather than with boundingRect, which
+     * allocates a Rect and whose signature changed in 3.4.4, so the same classes also run on the
+     * 3.4.2 desktop OpenCV the tests use.
+     */
+    private static int extent(int[] points, int count, int axis) {
+        if (count == 0) {
+            return 0;
+        }
+        int min = points[axis];
+        int max = min;
+        for (int i = 1; i < count; i++) {
+            int value = points[i * 2 + axis];
+            if (value < min) {
+                min = value;
+            } else if (value > max) {
+                max = value;
+            }
+        }
+        return max - min + 1;
+    }
+
+    private static double boxArea(MatOfPoint contour, PipelineContext context) {
+        int count = readPoints(contour, context);
+        return (double) extent(context.contourPoints, count, 0) * extent(context.contourPoints, count, 1);
+    }
+
+    /**
+     * The length of a closed polygon's outline, as Imgproc.arcLength(curve, true) computes it.
+     * @param points packed x, y coordinates.
+     */
+    private static double perimeter(int[] points, int count) {
+        double length = 0;
+        for (int i = 0; i < count; i++) {
+            int previous = (i == 0 ? count - 1 : i - 1) * 2;
+            double dx = points[i * 2] - points[previous];
+            double dy = points[i * 2 + 1] - points[previous + 1];
+            length += Math.sqrt(dx * dx + dy * dy);
+        }
+        return length;
+    }
+
+    /**
+     * The area of a contour's convex hull by the shoelace formula, from the contour's points as read
+     * by {@link #readPoints} and one bulk copy of the hull indices.
+     */
+    private static double hullArea(int[] points, MatOfInt hull, PipelineContext context) {
+        int hullCount = (int) hull.total();
+        if (context.hullIndexBuffer.length < hullCount) {
+            context.hullIndexBuffer = new int[hullCount];
+            context.hullPoints = new int[hullCount * 2];
+        }
+        int[] indices = context.hullIndexBuffer;
+        hull.get(0, 0, indices);
+        long twiceArea = 0;
+        for (int j = 0; j < hullCount; j++) {
+            int from = indices[j] * 2;
+            int to = indices[j + 1 < hullCount ? j + 1 : 0] * 2;
+            twiceArea += (long) points[from] * points[to + 1] - (long) points[to] * points[from + 1];
+        }
+        return Math.abs(twiceArea) / 2.0;
+    }
+
+    /**
+     * Compute the convex hulls of contours. Each contour and its hull indices are read in one bulk
+     * copy, and every hull is written both as a MatOfPoint and into the context's {@link HullBuffer}.
+     * @param inputContours The contours on which to perform the operation.
+     * @param context scratch hull indices and point arrays, and the hull buffer to fill.
+     * @param outputContours The contours where the output will be stored.
+     */
+    private static void convexHulls(List<MatOfPoint> inputContours, PipelineContext context,
+                                    List<MatOfPoint> outputContours) {
+        outputContours.clear();
+        HullBuffer buffer = context.hullBuffer;
+        buffer.clear();
+        MatOfInt hull = context.hullIndices;
+        for (int i = 0; i < inputContours.size(); i++) {
+            final MatOfPoint contour = inputContours.get(i);
+            final MatOfPoint mopHull = new MatOfPoint();
+            Imgproc.convexHull(contour, hull);
+            readPoints(contour, context);
+            int hullCount = (int) hull.total();
+            if (context.hullIndexBuffer.length < hullCount) {
+                context.hullIndexBuffer = new int[hullCount];
+                context.hullPoints = new int[hullCount * 2];
+            }
+            int[] points = context.contourPoints;
+            int[] indices = context.hullIndexBuffer;
+            int[] hullPoints = context.hullPoints;
+            hull.get(0, 0, indices);
+            for (int j = 0; j < hullCount; j++) {
+                hullPoints[j * 2] = points[indices[j] * 2];
+                hullPoints[j * 2 + 1] = points[indices[j] * 2 + 1];
+            }
+            mopHull.create(hullCount, 1, CvType.CV_32SC2);
+            mopHull.put(0, 0, hullPoints); // put stops at the end of the Mat
+            buffer.add(hullPoints, hullCount);
+            outputContours.add(mopHull);
+        }
+    }
+}
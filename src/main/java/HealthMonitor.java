@@ -0,0 +1,67 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Watches every camera's {@link CameraHealth}, publishes a summary to vision/health ("ok", or one
+ * "name: status" per unhealthy camera) and kicks off reconnects.
+ */
+public final class HealthMonitor {
+    private final NetworkTableEntry health;
+    private final Map<VideoSource, CameraHealth> cameras = new LinkedHashMap<>();
+
+    public HealthMonitor(NetworkTableEntry health) {
+        this.health = health;
+    }
+
+    /**
+     * Watch the runner's camera and have the runner report its grabs. Must be called before the
+     * monitor and the runner are started.
+     */
+    public void register(VideoSource camera, StagedPipelineRunner runner) {
+        CameraHealth cameraHealth = cameras.computeIfAbsent(camera, CameraHealth::new);
+        cameraHealth.runners.add(runner);
+        runner.setHealth(cameraHealth);
+    }
+
+    public void start() {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(250);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                check();
+            }
+        }, "health-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        StringBuilder status = new StringBuilder();
+        for (CameraHealth cameraHealth : cameras.values()) {
+            CameraHealth.Status cameraStatus = cameraHealth.status(now);
+            if (cameraStatus != CameraHealth.Status.OK) {
+                if (status.length() > 0) {
+                    status.append(", ");
+                }
+                status.append(cameraHealth.camera.getName()).append(": ")
+                        .append(cameraStatus.name().toLowerCase());
+                cameraHealth.reconnect();
+            }
+        }
+        health.setString(status.length() == 0 ? "ok" : status.toString());
+    }
+}
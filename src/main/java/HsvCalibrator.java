@@ -0,0 +1,412 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fits HSV threshold ranges to labelled frames. Every frame's pixels are counted into two
+ * quantised 3D HSV histograms, target and background, in parallel. Summed-volume tables then give
+ * the target and background count inside any HSV box in constant time. A coordinate descent over
+ * the six bounds searches for the box with the best intersection over union against the labels.
+ */
+final class HsvCalibrator {
+    /** Bins per channel: 2 hue values, 4 saturation and 4 value levels per bin. */
+    static final int HUE_BINS = 90;
+    static final int SAT_BINS = 64;
+    static final int VAL_BINS = 64;
+    private static final int HUE_SHIFT = 1;
+    private static final int SAT_SHIFT = 2;
+    private static final int VAL_SHIFT = 2;
+
+    /**
+     * Target and background pixel counts per HSV bin.
+     */
+    static final class Histogram {
+        final long[] target = new long[HUE_BINS * SAT_BINS * VAL_BINS];
+        final long[] background = new long[HUE_BINS * SAT_BINS * VAL_BINS];
+
+        /**
+         * Count one frame.
+         * @param hsv packed 3 channel HSV pixels.
+         * @param mask one byte per pixel, non zero for target pixels.
+         */
+        void add(byte[] hsv, byte[] mask) {
+            for (int i = 0, p = 0; i < mask.length; i++, p += 3) {
+                int bin = ((hsv[p] & 0xFF) >> HUE_SHIFT) * SAT_BINS * VAL_BINS
+                        + ((hsv[p + 1] & 0xFF) >> SAT_SHIFT) * VAL_BINS
+                        + ((hsv[p + 2] & 0xFF) >> VAL_SHIFT);
+                if (bin >= target.length) {
+                    // hue above 179 does not come out of cvtColor, but don't trust the input
+                    continue;
+                }
+                if (mask[i] != 0) {
+                    target[bin]++;
+                } else {
+                    background[bin]++;
+                }
+            }
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] += other.target[i];
+                background[i] += other.background[i];
+            }
+        }
+    }
+
+    /**
+     * Inclusive prefix sums of a histogram, one bin of zero padding on each axis.
+     */
+    static final class SummedVolume {
+        private static final int S = SAT_BINS + 1;
+        private static final int V = VAL_BINS + 1;
+        private final long[] sums = new long[(HUE_BINS + 1) * S * V];
+
+        SummedVolume(long[] counts) {
+            for (int h = 1; h <= HUE_BINS; h++) {
+                for (int s = 1; s <= SAT_BINS; s++) {
+                    for (int v = 1; v <= VAL_BINS; v++) {
+                        sums[index(h, s, v)] = counts[((h - 1) * SAT_BINS + s - 1) * VAL_BINS + v - 1]
+                                + sums[index(h - 1, s, v)] + sums[index(h, s - 1, v)] + sums[index(h, s, v - 1)]
+                                - sums[index(h - 1, s - 1, v)] - sums[index(h - 1, s, v - 1)]
+                                - sums[index(h, s - 1, v - 1)] + sums[index(h - 1, s - 1, v - 1)];
+                    }
+                }
+            }
+        }
+
+        private static int index(int h, int s, int v) {
+            return (h * S + s) * V + v;
+        }
+
+        /**
+         * @return The count inside the box with the given inclusive bin bounds.
+         */
+        long sum(int[] box) {
+            int h0 = box[0];
+            int h1 = box[1] + 1;
+            int s0 = box[2];
+            int s1 = box[3] + 1;
+            int v0 = box[4];
+            int v1 = box[5] + 1;
+            return sums[index(h1, s1, v1)] - sums[index(h0, s1, v1)] - sums[index(h1, s0, v1)]
+                    - sums[index(h1, s1, v0)] + sums[index(h0, s0, v1)] + sums[index(h0, s1, v0)]
+                    + sums[index(h1, s0, v0)] - sums[index(h0, s0, v0)];
+        }
+    }
+
+    /**
+     * The best box found: inclusive bin bounds {hueLo, hueHi, satLo, satHi, valLo, valHi} and
+     * how well it matches the labels.
+     */
+    static final class Fit {
+        final int[] box;
+        final double iou;
+        final double precision;
+        final double recall;
+
+        Fit(int[] box, double iou, double precision, double recall) {
+            this.box = box;
+            this.iou = iou;
+            this.precision = precision;
+            this.recall = recall;
+        }
+
+        double hueMin() {
+            return box[0] << HUE_SHIFT;
+        }
+
+        double hueMax() {
+            return ((box[1] + 1) << HUE_SHIFT) - 1;
+        }
+
+        double saturationMin() {
+            return box[2] << SAT_SHIFT;
+        }
+
+        double saturationMax() {
+            return ((box[3] + 1) << SAT_SHIFT) - 1;
+        }
+
+        double valueMin() {
+            return box[4] << VAL_SHIFT;
+        }
+
+        double valueMax() {
+            return ((box[5] + 1) << VAL_SHIFT) - 1;
+        }
+    }
+
+    private static final int[] BIN_LIMITS = {HUE_BINS - 1, SAT_BINS - 1, VAL_BINS - 1};
+
+    private HsvCalibrator() {
+    }
+
+    /**
+     * Search for the HSV box with the best intersection over union. Starts from a few percentile
+     * boxes of the target pixels and keeps moving single bounds to their best position until no
+     * move helps.
+     * @return the best fit, or null if there are no target pixels.
+     */
+    static Fit fit(Histogram histogram) {
+        SummedVolume target = new SummedVolume(histogram.target);
+        SummedVolume background = new SummedVolume(histogram.background);
+        int[] all = {0, HUE_BINS - 1, 0, SAT_BINS - 1, 0, VAL_BINS - 1};
+        long totalTarget = target.sum(all);
+        if (totalTarget == 0) {
+            return null;
+        }
+
+        int[] best = null;
+        double bestIou = -1;
+        for (double trim : new double[] {0, 0.005, 0.02, 0.05}) {
+            int[] box = percentileBox(histogram.target, totalTarget, trim);
+            double iou = descend(box, target, background, totalTarget);
+            if (iou > bestIou) {
+                bestIou = iou;
+                best = box;
+            }
+        }
+        long tp = target.sum(best);
+        long fp = background.sum(best);
+        return new Fit(best, bestIou, tp / (double) Math.max(1, tp + fp), tp / (double) totalTarget);
+    }
+
+    private static double iou(int[] box, SummedVolume target, SummedVolume background, long totalTarget) {
+        // union = everything labelled plus everything wrongly let in
+        return target.sum(box) / (double) (totalTarget + background.sum(box));
+    }
+
+    /**
+     * Coordinate descent: move each bound in turn to its best value with the others held, until a
+     * full pass changes nothing. Each candidate costs two summed-volume lookups.
+     * @return the IoU of the final box, which is updated in place.
+     */
+    private static double descend(int[] box, SummedVolume target, SummedVolume background, long totalTarget) {
+        double current = iou(box, target, background, totalTarget);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int bound = 0; bound < 6; bound++) {
+                int limit = BIN_LIMITS[bound / 2];
+                boolean low = bound % 2 == 0;
+                int original = box[bound];
+                int bestValue = original;
+                double bestIou = current;
+                int from = low ? 0 : box[bound - 1];
+                int to = low ? box[bound + 1] : limit;
+                for (int value = from; value <= to; value++) {
+                    box[bound] = value;
+                    double candidate = iou(box, target, background, totalTarget);
+                    if (candidate > bestIou + 1e-12) {
+                        bestIou = candidate;
+                        bestValue = value;
+                    }
+                }
+                box[bound] = bestValue;
+                if (bestValue != original) {
+                    current = bestIou;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The box holding each channel's target pixels between the trim and 1 - trim quantiles.
+     */
+    private static int[] percentileBox(long[] counts, long total, double trim) {
+        int[] bins = {HUE_BINS, SAT_BINS, VAL_BINS};
+        long[][] marginals = {new long[HUE_BINS], new long[SAT_BINS], new long[VAL_BINS]};
+        for (int h = 0, i = 0; h < HUE_BINS; h++) {
+            for (int s = 0; s < SAT_BINS; s++) {
+                for (int v = 0; v < VAL_BINS; v++, i++) {
+                    marginals[0][h] += counts[i];
+                    marginals[1][s] += counts[i];
+                    marginals[2][v] += counts[i];
+                }
+            }
+        }
+        int[] box = new int[6];
+        long cut = (long) (total * trim);
+        for (int c = 0; c < 3; c++) {
+            long seen = 0;
+            int lo = 0;
+            while (lo < bins[c] - 1 && seen + marginals[c][lo] <= cut) {
+                seen += marginals[c][lo++];
+            }
+            seen = 0;
+            int hi = bins[c] - 1;
+            while (hi > lo && seen + marginals[c][hi] <= cut) {
+                seen += marginals[c][hi--];
+            }
+            box[c * 2] = lo;
+            box[c * 2 + 1] = hi;
+        }
+        return box;
+    }
+
+    /**
+     * Counts frames into one histogram per worker. A histogram is about 6 MB, so the workers take
+     * frames from a shared counter into the histogram they keep for the whole run, rather than
+     * allocate one per batch of frames; the few worker histograms are merged at the end.
+     */
+    static final class HistogramWorker implements Callable<Histogram> {
+        private final List<String> frames;
+        private final Map<String, List<Rect>> boxes;
+        private final AtomicInteger next;
+
+        HistogramWorker(List<String> frames, Map<String, List<Rect>> boxes, AtomicInteger next) {
+            this.frames = frames;
+            this.boxes = boxes;
+            this.next = next;
+        }
+
+        /**
+         * Count the frames on the given number of threads.
+         */
+        static Histogram count(List<String> frames, Map<String, List<Rect>> boxes, int threads)
+                throws InterruptedException, ExecutionException {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                AtomicInteger next = new AtomicInteger();
+                List<HistogramWorker> workers = new ArrayList<>();
+                for (int i = 0; i < Math.min(threads, Math.max(1, frames.size())); i++) {
+                    workers.add(new HistogramWorker(frames, boxes, next));
+                }
+                Histogram merged = null;
+                for (Future<Histogram> counted : pool.invokeAll(workers)) {
+                    if (merged == null) {
+                        merged = counted.get();
+                    } else {
+                        merged.add(counted.get());
+                    }
+                }
+                return merged;
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        @Override
+        public Histogram call() {
+            Histogram histogram = new Histogram();
+            Mat hsv = new Mat();
+            Mat mask = new Mat();
+            byte[] hsvBytes = new byte[0];
+            byte[] maskBytes = new byte[0];
+            for (int i = next.getAndIncrement(); i < frames.size(); i = next.getAndIncrement()) {
+                String frame = frames.get(i);
+                Mat bgr = Imgcodecs.imread(frame);
+                if (bgr.empty()) {
+                    System.err.println("could not read '" + frame + "'");
+                    continue;
+                }
+                if (!labelMask(frame, bgr.size(), mask)) {
+                    bgr.release();
+                    continue;
+                }
+                Imgproc.cvtColor(bgr, hsv, Imgproc.COLOR_BGR2HSV);
+                bgr.release();
+                int pixels = (int) hsv.total();
+                if (maskBytes.length != pixels) {
+                    hsvBytes = new byte[pixels * 3];
+                    maskBytes = new byte[pixels];
+                }
+                hsv.get(0, 0, hsvBytes);
+                mask.get(0, 0, maskBytes);
+                histogram.add(hsvBytes, maskBytes);
+            }
+            hsv.release();
+            mask.release();
+            return histogram;
+        }
+
+        /**
+         * The frame's labels as a mask: a {@code <frame>.mask.png} next to it, else its boxes, else
+         * nothing (the frame is all background).
+         * @return false if the mask file exists but can't be used.
+         */
+        private boolean labelMask(String frame, Size size, Mat mask) {
+            Path maskFile = maskPath(frame);
+            if (Files.exists(maskFile)) {
+                Mat read = Imgcodecs.imread(maskFile.toString(), Imgcodecs.IMREAD_GRAYSCALE);
+                if (read.empty() || read.width() != (int) size.width || read.height() != (int) size.height) {
+                    System.err.println("skipping '" + frame + "': mask is unreadable or a different size");
+                    read.release();
+                    return false;
+                }
+                read.copyTo(mask);
+                read.release();
+                return true;
+            }
+            mask.create(size, CvType.CV_8UC1);
+            mask.setTo(Scalar.all(0));
+            List<Rect> frameBoxes = boxes.get(Paths.get(frame).getFileName().toString());
+            if (frameBoxes != null) {
+                for (Rect box : frameBoxes) {
+                    Imgproc.rectangle(mask, box.tl(), box.br(), Scalar.all(255), -1);
+                }
+            }
+            return true;
+        }
+    }
+
+    static Path maskPath(String frame) {
+        int dot = frame.lastIndexOf('.');
+        return Paths.get(frame.substring(0, dot) + ".mask.png");
+    }
+
+    /**
+     * Read {@code boxes.csv}: one {@code frame,x,y,width,height} line per box, frame being the
+     * file name within the directory.
+     */
+    static Map<String, List<Rect>> readBoxes(Path file) throws IOException {
+        Map<String, List<Rect>> boxes = new HashMap<>();
+        if (!Files.exists(file)) {
+            return boxes;
+        }
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("frame,")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            try {
+                if (fields.length != 5) {
+                    throw new NumberFormatException("expected 5 fields");
+                }
+                Rect box = new Rect(Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim()),
+                        Integer.parseInt(fields[3].trim()), Integer.parseInt(fields[4].trim()));
+                boxes.computeIfAbsent(fields[0].trim(), f -> new ArrayList<>()).add(box);
+            } catch (NumberFormatException ex) {
+                throw new IOException(file + ":" + lineNumber + ": " + ex.getMessage());
+            }
+        }
+        return boxes;
+    }
+}
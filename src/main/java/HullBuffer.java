@@ -0,0 +1,215 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The convex hulls of a frame in flat off-heap memory, for listeners that want to analyse
+ * geometry in primitive loops rather than through MatOfPoint and boxed Points. Hull points are
+ * packed x, y ints; each hull has the offset and count of its points, its bounding box, and its
+ * area and centroid, computed once while the hull is written.
+ *
+ * <p>The buffer belongs to a {@link PipelineContext} and is rewritten by the context's next frame.
+ * It is never part of a {@link PipelineResult}; it is lent out by {@link PipelineContext#hulls()},
+ * {@link ConfiguredPipeline#hulls()} and {@link StagedPipelineRunner#setHullListener} only while the
+ * caller holds the context.
+ */
+public final class HullBuffer {
+    private static final int BOUNDS = 6; // offset, count, minX, minY, maxX, maxY
+    private static final int MOMENTS = 3; // area, centroidX, centroidY
+
+    private IntBuffer points = ByteBuffer.allocateDirect(4096 * 8).order(ByteOrder.nativeOrder()).asIntBuffer();
+    private IntBuffer bounds = ByteBuffer.allocateDirect(64 * BOUNDS * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    private DoubleBuffer moments = ByteBuffer.allocateDirect(64 * MOMENTS * 8).order(ByteOrder.nativeOrder())
+            .asDoubleBuffer();
+    private int hullCount;
+    private int pointCount;
+
+    void clear() {
+        hullCount = 0;
+        pointCount = 0;
+    }
+
+    /**
+     * Append a hull.
+     * @param xy packed x, y coordinates of the hull points, in order.
+     * @param count number of points.
+     */
+    void add(int[] xy, int count) {
+        if ((pointCount + count) * 2 > points.capacity()) {
+            points = grow(points, (pointCount + count) * 2);
+        }
+        if ((hullCount + 1) * BOUNDS > bounds.capacity()) {
+            bounds = grow(bounds, (hullCount + 1) * BOUNDS);
+            DoubleBuffer larger = ByteBuffer.allocateDirect(bounds.capacity() / BOUNDS * MOMENTS * 8)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            for (int i = 0; i < hullCount * MOMENTS; i++) {
+                larger.put(i, moments.get(i));
+            }
+            moments = larger;
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        long twiceArea = 0;
+        long centroidX = 0;
+        long centroidY = 0;
+        long sumX = 0;
+        long sumY = 0;
+        int base = pointCount * 2;
+        for (int i = 0; i < count; i++) {
+            int x = xy[i * 2];
+            int y = xy[i * 2 + 1];
+            points.put(base + i * 2, x);
+            points.put(base + i * 2 + 1, y);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            sumX += x;
+            sumY += y;
+            // shoelace terms, edge from this point to the next
+            int next = i + 1 < count ? i + 1 : 0;
+            long cross = (long) x * xy[next * 2 + 1] - (long) xy[next * 2] * y;
+            twiceArea += cross;
+            centroidX += (x + xy[next * 2]) * cross;
+            centroidY += (y + xy[next * 2 + 1]) * cross;
+        }
+
+        int record = hullCount * BOUNDS;
+        bounds.put(record, pointCount);
+        bounds.put(record + 1, count);
+        bounds.put(record + 2, minX);
+        bounds.put(record + 3, minY);
+        bounds.put(record + 4, maxX);
+        bounds.put(record + 5, maxY);
+        int moment = hullCount * MOMENTS;
+        moments.put(moment, Math.abs(twiceArea) / 2.0);
+        if (twiceArea != 0) {
+            moments.put(moment + 1, centroidX / (3.0 * twiceArea));
+            moments.put(moment + 2, centroidY / (3.0 * twiceArea));
+        } else {
+            // a line or a point: fall back to the mean of the points
+            moments.put(moment + 1, count > 0 ? sumX / (double) count : 0);
+            moments.put(moment + 2, count > 0 ? sumY / (double) count : 0);
+        }
+        hullCount++;
+        pointCount += count;
+    }
+
+    private static IntBuffer grow(IntBuffer buffer, int needed) {
+        int capacity = Math.max(needed, buffer.capacity() * 2);
+        IntBuffer larger = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < buffer.capacity(); i++) {
+            larger.put(i, buffer.get(i));
+        }
+        return larger;
+    }
+
+    /**
+     * @return Number of hulls.
+     */
+    public int size() {
+        return hullCount;
+    }
+
+    /**
+     * @return Total number of points over all hulls.
+     */
+    public int pointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return Index of the hull's first point, for {@link #x(int)} and {@link #y(int)}.
+     */
+    public int offset(int hull) {
+        return bounds.get(hull * BOUNDS);
+    }
+
+    public int count(int hull) {
+        return bounds.get(hull * BOUNDS + 1);
+    }
+
+    public int minX(int hull) {
+        return bounds.get(hull * BOUNDS + 2);
+    }
+
+    public int minY(int hull) {
+        return bounds.get(hull * BOUNDS + 3);
+    }
+
+    public int maxX(int hull) {
+        return bounds.get(hull * BOUNDS + 4);
+    }
+
+    public int maxY(int hull) {
+        return bounds.get(hull * BOUNDS + 5);
+    }
+
+    public double area(int hull) {
+        return moments.get(hull * MOMENTS);
+    }
+
+    public double centroidX(int hull) {
+        return moments.get(hull * MOMENTS + 1);
+    }
+
+    public double centroidY(int hull) {
+        return moments.get(hull * MOMENTS + 2);
+    }
+
+    public int x(int point) {
+        return points.get(point * 2);
+    }
+
+    public int y(int point) {
+        return points.get(point * 2 + 1);
+    }
+
+    /**
+     * @return A read only view of the packed x, y points of every hull, for bulk access.
+     */
+    public IntBuffer points() {
+        IntBuffer view = points.asReadOnlyBuffer();
+        view.limit(pointCount * 2);
+        return view;
+    }
+
+    /**
+     * @return The left most X over all hulls, or -1 if there are none.
+     */
+    public int minX() {
+        if (hullCount == 0) {
+            return -1;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int hull = 0; hull < hullCount; hull++) {
+            min = Math.min(min, minX(hull));
+        }
+        return min;
+    }
+
+    /**
+     * @return The right most X over all hulls, or -1 if there are none.
+     */
+    public int maxX() {
+        if (hullCount == 0) {
+            return -1;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int hull = 0; hull < hullCount; hull++) {
+            max = Math.max(max, maxX(hull));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,121 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of durations in the style of HdrHistogram: exact below 64 us, and
+ * above that each power of two split into 32 buckets, so any value is within about 3% of its
+ * bucket's upper bound. Durations over a minute count as a minute.
+ *
+ * <p>Recording is a couple of shifts and an unsynchronized increment, so a histogram must only
+ * be recorded to by one thread. Any thread may read it; readers see a slightly stale copy.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final long MAX_MICROS = 60_000_000L;
+
+    final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_MICROS) + 1);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private volatile long maxMicros;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((micros >>> shift) - HALF);
+    }
+
+    /**
+     * @return The largest value in the bucket, in microseconds.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a duration. Only call from the histogram's one writer thread.
+     */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+        int index = index(micros);
+        // single writer: no read-modify-write race to guard against, just publish the new values
+        counts.lazySet(index, counts.get(index) + 1);
+        sumMicros.lazySet(sumMicros.get() + micros);
+        total.lazySet(total.get() + 1);
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+    }
+
+    /**
+     * @return A copy of the histogram as it is now.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(name, copy, count, sumMicros.get(), maxMicros);
+    }
+
+    /**
+     * A point in time copy of a histogram, with its percentiles.
+     */
+    public static final class Snapshot {
+        public final String name;
+        final long[] counts;
+        public final long count;
+        public final long maxMicros;
+        private final long sumMicros;
+
+        Snapshot(String name, long[] counts, long count, long sumMicros, long maxMicros) {
+            this.name = name;
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public double meanMicros() {
+            return count == 0 ? 0 : sumMicros / (double) count;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return The value that percentile of the recorded values are at or below, in microseconds.
+         */
+        public long valueAt(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), maxMicros);
+                }
+            }
+            return 0;
+        }
+    }
+}
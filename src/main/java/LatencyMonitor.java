@@ -0,0 +1,231 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Frame time histograms for every pipeline and stage, with a timeline of the things that cause
+ * frame time outliers: garbage collections, stalls of the whole JVM (safepoints, the scheduler,
+ * a throttled CPU) seen by a probe thread, and CPU frequency changes. Served as JSON over HTTP
+ * so a laptop can scrape it during practice, e.g. {@code curl http://10.75.28.11:5805/latency}.
+ *
+ * <p>The histograms are cumulative since startup; diff two scrapes for an interval.
+ */
+public final class LatencyMonitor {
+    /** A frame slower than this goes on the timeline, next to whatever may have caused it. */
+    private static final long SLOW_FRAME_NANOS = 100_000_000L;
+    private static final long PROBE_INTERVAL_NANOS = 1_000_000L;
+    /** Probe wake ups later than this go on the timeline. */
+    private static final long HICCUP_NANOS = 10_000_000L;
+    private static final int EVENTS = 256;
+    private static final String CPU_FREQUENCY = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq";
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ArrayDeque<Event> events = new ArrayDeque<>(EVENTS);
+
+    /**
+     * Something that happened at a point in time, in milliseconds since JVM start.
+     */
+    static final class Event {
+        final long atMs;
+        final String kind;
+        final String detail;
+        final double durationMs;
+
+        Event(long atMs, String kind, String detail, double durationMs) {
+            this.atMs = atMs;
+            this.kind = kind;
+            this.detail = detail;
+            this.durationMs = durationMs;
+        }
+    }
+
+    /**
+     * The histogram with this name, created on first use. Each histogram must be recorded to by
+     * one thread only, so give every stage its own.
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Record how long a pipeline took from grab to published result, noting it on the timeline if
+     * it was slow. Called from the pipeline's publish thread.
+     */
+    void frame(LatencyHistogram histogram, long nanos) {
+        histogram.record(nanos);
+        if (nanos > SLOW_FRAME_NANOS) {
+            event(StartupTimer.sinceJvmStart(), "slow-frame", histogram.name, nanos / 1e6);
+        }
+    }
+
+    void event(long atMs, String kind, String detail, double durationMs) {
+        synchronized (events) {
+            if (events.size() == EVENTS) {
+                events.removeFirst();
+            }
+            events.addLast(new Event(atMs, kind, detail, durationMs));
+        }
+    }
+
+    /**
+     * Listen for garbage collections, start the probe thread, and serve /latency on the port.
+     */
+    public void start(int port) throws IOException {
+        listenForGc();
+        Thread probe = new Thread(this::probe, "latency-probe");
+        probe.setDaemon(true);
+        probe.setPriority(Thread.MAX_PRIORITY);
+        probe.start();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/latency", exchange -> {
+            boolean buckets = exchange.getRequestURI().getQuery() != null
+                    && exchange.getRequestURI().getQuery().contains("buckets");
+            byte[] body = toJson(buckets).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(task -> {
+            Thread thread = new Thread(task, "latency-http");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        server.start();
+        System.out.println("Serving frame latency on port " + port + " at /latency");
+    }
+
+    private void listenForGc() {
+        LatencyHistogram pauses = histogram("jvm/gc");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                        .equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                long duration = info.getGcInfo().getDuration();
+                // notifications arrive one at a time on the JMX thread, the histogram's only writer
+                pauses.record(duration * 1_000_000L);
+                event(info.getGcInfo().getStartTime(), "gc",
+                        info.getGcName() + " " + info.getGcAction() + " (" + info.getGcCause() + ")", duration);
+            }, null, null);
+        }
+    }
+
+    /**
+     * Sleep for a millisecond at a time and record how late each wake up is, like jHiccup: a late
+     * wake up means every thread, the pipelines included, was stalled. Also watches the CPU
+     * frequency for throttling.
+     */
+    private void probe() {
+        LatencyHistogram hiccups = histogram("jvm/hiccup");
+        Path frequencyFile = Paths.get(CPU_FREQUENCY);
+        String frequency = readFrequency(frequencyFile);
+        long nextFrequencyCheck = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(PROBE_INTERVAL_NANOS);
+            long now = System.nanoTime();
+            long late = Math.max(0, now - start - PROBE_INTERVAL_NANOS);
+            hiccups.record(late);
+            if (late > HICCUP_NANOS) {
+                event(StartupTimer.sinceJvmStart() - late / 1_000_000, "hiccup", "", late / 1e6);
+            }
+            if (frequency != null && now - nextFrequencyCheck > 0) {
+                nextFrequencyCheck = now + 1_000_000_000L;
+                String current = readFrequency(frequencyFile);
+                if (current != null && !current.equals(frequency)) {
+                    event(StartupTimer.sinceJvmStart(), "cpufreq", frequency + " -> " + current + " kHz", 0);
+                    frequency = current;
+                }
+            }
+        }
+    }
+
+    private static String readFrequency(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    String toJson(boolean buckets) throws IOException {
+        StringWriter text = new StringWriter();
+        JsonWriter json = new JsonWriter(text);
+        json.beginObject();
+        json.name("uptimeMs").value(StartupTimer.sinceJvmStart());
+        json.name("histograms").beginObject();
+        for (String name : new TreeSet<>(histograms.keySet())) {
+            LatencyHistogram.Snapshot snapshot = histograms.get(name).snapshot();
+            json.name(name).beginObject();
+            json.name("count").value(snapshot.count);
+            json.name("meanUs").value(Math.round(snapshot.meanMicros()));
+            json.name("p50Us").value(snapshot.valueAt(50));
+            json.name("p90Us").value(snapshot.valueAt(90));
+            json.name("p99Us").value(snapshot.valueAt(99));
+            json.name("p999Us").value(snapshot.valueAt(99.9));
+            json.name("maxUs").value(snapshot.maxMicros);
+            if (buckets) {
+                // [upper bound in us, count] for every bucket that has any
+                json.name("buckets").beginArray();
+                for (int i = 0; i < snapshot.counts.length; i++) {
+                    if (snapshot.counts[i] > 0) {
+                        json.beginArray().value(LatencyHistogram.upperBound(i)).value(snapshot.counts[i]).endArray();
+                    }
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endObject();
+        json.name("events").beginArray();
+        synchronized (events) {
+            for (Event event : events) {
+                json.beginObject();
+                json.name("atMs").value(event.atMs);
+                json.name("kind").value(event.kind);
+                json.name("detail").value(event.detail);
+                json.name("durationMs").value(event.durationMs);
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.endObject();
+        json.close();
+        return text.toString();
+    }
+}
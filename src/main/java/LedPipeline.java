@@ -0,0 +1,20 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * GripPipeline class.
+ *
+ * <p>An OpenCV pipeline generated by GRIP.
+ *
+ * @author GRIP
+ */
+public class LedPipeline extends ConfiguredPipeline {
+    public LedPipeline() {
+        super(PipelineConfig.LED);
+    }
+}
@@ -0,0 +1,116 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Follows the scene brightness and shifts a pipeline's value and saturation bounds with it.
+ * After each threshold, the HSV Mat that step already made is shrunk to 80x60 by nearest
+ * neighbour (a single native call) and the median of its V channel is taken. The distance of that
+ * median from a reference brightness moves the value bounds up or down, and the saturation bounds
+ * the other way, because brighter light washes colours out. Both moves are clamped to the
+ * config's limits and smoothed with an exponential moving average, so one flash of light changes
+ * little. The next frame is thresholded with the result.
+ *
+ * <p>One adapter serves all the slots of a runner and is only used by its threshold stage.
+ */
+final class LightingAdapter {
+    private static final Size SAMPLE_SIZE = new Size(80, 60);
+    /** Frames averaged to learn the reference when the config doesn't give one. */
+    private static final int LEARN_FRAMES = 30;
+
+    private final Mat sample = new Mat();
+    private final int[] histogram = new int[256];
+    private byte[] pixels = new byte[0];
+    private double learnedReference;
+    private int learnedFrames;
+    private double valueShift;
+    private double saturationShift;
+    private ThresholdBounds bounds;
+
+    /**
+     * @return The bounds to threshold the next frame with, rounded to whole levels as the threshold
+     * steps round them anyway. The same instance as last frame until a bound moves a level.
+     */
+    ThresholdBounds bounds(PipelineConfig config) {
+        double hueMin = Math.rint(config.hueMin);
+        double hueMax = Math.rint(config.hueMax);
+        double saturationMin = Math.rint(clamp(config.saturationMin + saturationShift, 0, 255));
+        double saturationMax = Math.rint(clamp(config.saturationMax + saturationShift, 0, 255));
+        double valueMin = Math.rint(clamp(config.valueMin + valueShift, 0, 255));
+        double valueMax = Math.rint(clamp(config.valueMax + valueShift, 0, 255));
+        if (bounds == null || !bounds.sameAs(hueMin, hueMax, saturationMin, saturationMax, valueMin, valueMax)) {
+            bounds = new ThresholdBounds(hueMin, hueMax, saturationMin, saturationMax, valueMin, valueMax);
+        }
+        return bounds;
+    }
+
+    /**
+     * Take this frame's brightness into account.
+     */
+    void observe(PipelineConfig config, Mat hsv) {
+        Imgproc.resize(hsv, sample, SAMPLE_SIZE, 0, 0, Imgproc.INTER_NEAREST);
+        int length = (int) (sample.total() * sample.channels());
+        if (pixels.length != length) {
+            pixels = new byte[length];
+        }
+        sample.get(0, 0, pixels);
+        Arrays.fill(histogram, 0);
+        for (int i = 2; i < length; i += 3) {
+            histogram[pixels[i] & 0xFF]++;
+        }
+        double median = median(histogram, length / 3);
+
+        double reference = config.referenceValue;
+        if (reference <= 0) {
+            if (learnedFrames < LEARN_FRAMES) {
+                learnedReference += (median - learnedReference) / ++learnedFrames;
+                return;
+            }
+            reference = learnedReference;
+        }
+        double offset = median - reference;
+        double targetValueShift = clamp(offset, -config.maxValueShift, config.maxValueShift);
+        double targetSaturationShift = clamp(-offset / 2, -config.maxSaturationShift, config.maxSaturationShift);
+        valueShift += config.adaptRate * (targetValueShift - valueShift);
+        saturationShift += config.adaptRate * (targetSaturationShift - saturationShift);
+    }
+
+    /**
+     * Forget everything seen so far, e.g. the synthetic warm-up frames.
+     */
+    void reset() {
+        learnedReference = 0;
+        learnedFrames = 0;
+        valueShift = 0;
+        saturationShift = 0;
+        bounds = null;
+    }
+
+    private static double median(int[] histogram, int count) {
+        int half = count / 2;
+        int seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > half) {
+                return i;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    void release() {
+        sample.release();
+    }
+}
@@ -8,22 +8,40 @@
 import com.google.gson.*;
 import edu.wpi.cscore.MjpegServer;
 import edu.wpi.cscore.UsbCamera;
+import edu.wpi.cscore.VideoCamera;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoProperty;
+import edu.wpi.cscore.VideoSink;
 import edu.wpi.cscore.VideoSource;
 import edu.wpi.first.cameraserver.CameraServer;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.vision.VisionPipeline;
-import edu.wpi.first.vision.VisionThread;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import org.opencv.core.*;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /*
@@ -57,860 +75,627 @@ import java.util.List;
                    ]
                }
            }
-       ]
+       ],
+       "pipelines": {                                   // optional, overrides the built in values
+           <"cargo", "hatch" or "led">: {
+               "hue": [<min>, <max>],                   // 0-180
+               "saturation": [<min>, <max>],            // 0-255
+               "value": [<min>, <max>],                 // 0-255
+               "erodeIterations": <count>,
+               "morphology": <"opencv" or "bit_packed">,
+               "extraction": <"contours", "components" or "runs">,
+               "minArea": <pixels>,
+               "minPerimeter": <pixels>,
+               "width": [<min>, <max>],
+               "height": [<min>, <max>],
+               "ratio": [<min>, <max>],
+               "adaptive": <true, false or {                // follow the scene brightness, default false
+                   "reference": <median V the ranges were tuned at, 0 to learn it>,
+                   "maxValueShift": <largest move of the value bounds>,
+                   "maxSaturationShift": <largest move of the saturation bounds>,
+                   "rate": <weight of each frame in the moving average>
+               }>,
+               "profile": <"normal" (camera as configured, the default) or "dark" (short exposure, for
+                           the LED ring; retune the HSV ranges for it); changes take a restart>
+           }
+       },
+       "performance": {                                 // optional
+           "cpuCeiling": <fraction of CPU to stay under, default 0.85>,
+           "searchFps": <rate while the target is lost, default 10>,
+           "lostSeconds": <how long until a target counts as lost, default 1>,
+           "warmUpFrames": <synthetic frames per slot at startup, default 50>,
+           "debugStreams": <stream each pipeline's mask as "<pipeline>-mask", default false>,
+           "latencyPort": <port serving frame time histograms at /latency, 0 for none, default 5805>
+       }
    }
+
+   The file is watched: pipeline values and camera image settings apply as soon as it is saved.
+   Team, ntmode, camera paths and video modes, and performance need a restart.
  */
 
 public final class Main {
     private static String configFile = "/boot/frc.json";
 
-    @SuppressWarnings("MemberName")
-    public static class CameraConfig {
-        public String name;
-        public String path;
-        public JsonObject config;
-        public JsonElement streamConfig;
-    }
-
-    public static int team;
-    public static boolean server;
-    public static List<CameraConfig> cameraConfigs = new ArrayList<>();
-
     private Main() {
     }
 
     /**
-     * Report parse error.
+     * Read the configuration file, reporting any error.
+     * @return the config, or null if it could not be read.
      */
-    public static void parseError(String str) {
-        System.err.println("config error in '" + configFile + "': " + str);
+    public static VisionConfig readConfig() {
+        try {
+            return ConfigReader.read(Paths.get(configFile));
+        } catch (IOException ex) {
+            System.err.println("could not open '" + configFile + "': " + ex);
+        } catch (ConfigException ex) {
+            System.err.println("config error in '" + configFile + "': " + ex.getMessage());
+        }
+        return null;
     }
 
     /**
-     * Read single camera configuration.
+     * Start running the camera.
      */
-    public static boolean readCameraConfig(JsonObject config) {
-        CameraConfig cam = new CameraConfig();
-
-        // name
-        JsonElement nameElement = config.get("name");
-        if (nameElement == null) {
-            parseError("could not read camera name");
-            return false;
-        }
-        cam.name = nameElement.getAsString();
+    public static VideoSource startCamera(CameraConfig config) {
+        System.out.println("Starting camera '" + config.name + "' on " + config.path);
+        CameraServer inst = CameraServer.getInstance();
+        UsbCamera camera = new UsbCamera(config.name, config.path);
+        MjpegServer server = inst.startAutomaticCapture(camera);
 
-        // path
-        JsonElement pathElement = config.get("path");
-        if (pathElement == null) {
-            parseError("camera '" + cam.name + "': could not read path");
-            return false;
+        if (config.pixelFormat != null || config.width > 0 || config.fps > 0) {
+            VideoMode current = camera.getVideoMode();
+            camera.setVideoMode(config.pixelFormat != null ? config.pixelFormat : current.pixelFormat,
+                    config.width > 0 ? config.width : current.width,
+                    config.height > 0 ? config.height : current.height,
+                    config.fps > 0 ? config.fps : current.fps);
         }
-        cam.path = pathElement.getAsString();
-
-        // stream properties
-        cam.streamConfig = config.get("stream");
+        applyCameraSettings(camera, config);
+        camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
 
-        cam.config = config;
+        applyProperties(server, config.streamProperties);
 
-        cameraConfigs.add(cam);
-        return true;
+        return camera;
     }
 
     /**
-     * Read configuration file.
+     * Apply the image settings of a camera config: everything but the video mode, which would
+     * restart the stream. Used at startup and when the config file changes.
      */
-    @SuppressWarnings("PMD.CyclomaticComplexity")
-    public static boolean readConfig() {
-        // parse file
-        JsonElement top;
-        try {
-            top = new JsonParser().parse(Files.newBufferedReader(Paths.get(configFile)));
-        } catch (IOException ex) {
-            System.err.println("could not open '" + configFile + "': " + ex);
-            return false;
+    static void applyCameraSettings(UsbCamera camera, CameraConfig config) {
+        if (config.brightness != null) {
+            camera.setBrightness(config.brightness);
+        }
+        if (config.whiteBalance != null) {
+            switch (config.whiteBalance.mode) {
+                case AUTO:
+                    camera.setWhiteBalanceAuto();
+                    break;
+                case HOLD:
+                    camera.setWhiteBalanceHoldCurrent();
+                    break;
+                default:
+                    camera.setWhiteBalanceManual(config.whiteBalance.value);
+            }
+        }
+        if (config.exposure != null) {
+            switch (config.exposure.mode) {
+                case AUTO:
+                    camera.setExposureAuto();
+                    break;
+                case HOLD:
+                    camera.setExposureHoldCurrent();
+                    break;
+                default:
+                    camera.setExposureManual(config.exposure.value);
+            }
         }
+        applyProperties(camera, config.properties);
+    }
 
-        // top level must be an object
-        if (!top.isJsonObject()) {
-            parseError("must be JSON object");
-            return false;
+    /**
+     * A reloaded pipeline config with the running pipeline's capture profile. Whether the camera is
+     * multiplexed between profiles is decided from the startup profiles, so changing a profile takes
+     * a restart.
+     */
+    static PipelineConfig keepProfile(PipelineConfig running, PipelineConfig reloaded) {
+        if (reloaded.profile == running.profile) {
+            return reloaded;
         }
-        JsonObject obj = top.getAsJsonObject();
+        System.err.println(reloaded.name + ": capture profile changes take a restart, keeping '"
+                + running.profile.name + "'");
+        return reloaded.toBuilder().profile(running.profile).build();
+    }
 
-        // team number
-        JsonElement teamElement = obj.get("team");
-        if (teamElement == null) {
-            parseError("could not read team number");
-            return false;
+    private static void applyProperties(VideoSource source, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            setProperty(source.getProperty(property.getKey()), source.getName(), property);
         }
-        team = teamElement.getAsInt();
+    }
 
-        // ntmode (optional)
-        if (obj.has("ntmode")) {
-            String str = obj.get("ntmode").getAsString();
-            if ("client".equalsIgnoreCase(str)) {
-                server = false;
-            } else if ("server".equalsIgnoreCase(str)) {
-                server = true;
-            } else {
-                parseError("could not understand ntmode value '" + str + "'");
-            }
+    private static void applyProperties(VideoSink sink, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            setProperty(sink.getProperty(property.getKey()), sink.getName(), property);
         }
+    }
 
-        // cameras
-        JsonElement camerasElement = obj.get("cameras");
-        if (camerasElement == null) {
-            parseError("could not read cameras");
-            return false;
+    private static void setProperty(VideoProperty videoProperty, String owner, Map.Entry<String, Object> property) {
+        if (videoProperty.getKind() == VideoProperty.Kind.kNone) {
+            System.err.println(owner + ": no property '" + property.getKey() + "'");
+            return;
         }
-        JsonArray cameras = camerasElement.getAsJsonArray();
-        for (JsonElement camera : cameras) {
-            if (!readCameraConfig(camera.getAsJsonObject())) {
-                return false;
-            }
+        Object value = property.getValue();
+        if (value instanceof Integer) {
+            videoProperty.set((Integer) value);
+        } else if (value instanceof Boolean) {
+            videoProperty.set((Boolean) value ? 1 : 0);
+        } else {
+            videoProperty.setString((String) value);
         }
-
-        return true;
     }
 
     /**
-     * Start running the camera.
+     * One row of batch output: what a single pipeline found in a single frame.
      */
-    public static VideoSource startCamera(CameraConfig config) {
-        System.out.println("Starting camera '" + config.name + "' on " + config.path);
-        CameraServer inst = CameraServer.getInstance();
-        UsbCamera camera = new UsbCamera(config.name, config.path);
-        MjpegServer server = inst.startAutomaticCapture(camera);
-
-        Gson gson = new GsonBuilder().create();
-
-        camera.setConfigJson(gson.toJson(config.config));
-        camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
-
-        if (config.streamConfig != null) {
-            server.setConfigJson(gson.toJson(config.streamConfig));
+    private static final class BatchResult {
+        String frame;
+        PipelineResult result;
+        double processMs;
+
+        String toCsv() {
+            return frame + "," + result.pipeline + "," + result.found() + "," + result.minX + "," + result.maxX + ","
+                    + result.centerX() + "," + result.hullCount + "," + result.contoursFound + ","
+                    + result.contoursKept + "," + processMs;
+        }
+
+        String toJson() {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("frame", frame);
+            obj.addProperty("pipeline", result.pipeline);
+            obj.addProperty("found", result.found());
+            obj.addProperty("minX", result.minX);
+            obj.addProperty("maxX", result.maxX);
+            obj.addProperty("centerX", result.centerX());
+            obj.addProperty("hulls", result.hullCount);
+            obj.addProperty("contoursFound", result.contoursFound);
+            obj.addProperty("contoursKept", result.contoursKept);
+            obj.addProperty("processMs", processMs);
+            return obj.toString();
         }
-
-        return camera;
     }
 
     /**
-     * Example pipeline.
+     * Runs every selected pipeline over a range of frames in a batch chunk, splitting the range
+     * until each task holds a single frame so idle workers can steal the rest.
      */
-    public static class CargoPipeline implements VisionPipeline {
-        //Outputs
-        private Mat hsvThresholdOutput = new Mat();
-        private Mat cvErodeOutput = new Mat();
-        private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> convexHullsOutput = new ArrayList<MatOfPoint>();
-
-        static {
-            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-        }
-
-        /**
-         * This is the primary method that runs the entire pipeline and updates the outputs.
-         */
-        public void process(Mat source0) {
-            // Step HSV_Threshold0:
-            Mat hsvThresholdInput = source0;
-            double[] hsvThresholdHue = {0.0, 47.512365169462136};
-            double[] hsvThresholdSaturation = {146.97851887981145, 255.0};
-            double[] hsvThresholdValue = {137.69789253343086, 255.0};
-            hsvThreshold(hsvThresholdInput, hsvThresholdHue, hsvThresholdSaturation, hsvThresholdValue, hsvThresholdOutput);
-
-            // Step CV_erode0:
-            Mat cvErodeSrc = hsvThresholdOutput;
-            Mat cvErodeKernel = new Mat();
-            Point cvErodeAnchor = new Point(-1, -1);
-            double cvErodeIterations = 1;
-            int cvErodeBordertype = Core.BORDER_CONSTANT;
-            Scalar cvErodeBordervalue = new Scalar(-1);
-            cvErode(cvErodeSrc, cvErodeKernel, cvErodeAnchor, cvErodeIterations, cvErodeBordertype, cvErodeBordervalue, cvErodeOutput);
-
-            // Step Find_Contours0:
-            Mat findContoursInput = cvErodeOutput;
-            boolean findContoursExternalOnly = false;
-            findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
-
-            // Step Filter_Contours0:
-            ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-            double filterContoursMinArea = 60.0;
-            double filterContoursMinPerimeter = 0;
-            double filterContoursMinWidth = 0;
-            double filterContoursMaxWidth = 1000;
-            double filterContoursMinHeight = 0;
-            double filterContoursMaxHeight = 1000;
-            double[] filterContoursSolidity = {0, 100};
-            double filterContoursMaxVertices = 1000000;
-            double filterContoursMinVertices = 16.0;
-            double filterContoursMinRatio = 0;
-            double filterContoursMaxRatio = 1000;
-            filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-
-            // Step Convex_Hulls0:
-            ArrayList<MatOfPoint> convexHullsContours = filterContoursOutput;
-            convexHulls(convexHullsContours, convexHullsOutput);
-
-        }
-
-        /**
-         * This method is a generated getter for the output of a HSV_Threshold.
-         * @return Mat output from HSV_Threshold.
-         */
-        public Mat hsvThresholdOutput() {
-            return hsvThresholdOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a CV_erode.
-         * @return Mat output from CV_erode.
-         */
-        public Mat cvErodeOutput() {
-            return cvErodeOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Find_Contours.
-         * @return ArrayList<MatOfPoint> output from Find_Contours.
-         */
-        public ArrayList<MatOfPoint> findContoursOutput() {
-            return findContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Filter_Contours.
-         * @return ArrayList<MatOfPoint> output from Filter_Contours.
-         */
-        public ArrayList<MatOfPoint> filterContoursOutput() {
-            return filterContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Convex_Hulls.
-         * @return ArrayList<MatOfPoint> output from Convex_Hulls.
-         */
-        public ArrayList<MatOfPoint> convexHullsOutput() {
-            return convexHullsOutput;
-        }
-
-
-        /**
-         * Segment an image based on hue, saturation, and value ranges.
-         *
-         * @param input The image on which to perform the HSL threshold.
-         * @param hue The min and max hue
-         * @param sat The min and max saturation
-         * @param val The min and max value
-         */
-        private void hsvThreshold(Mat input, double[] hue, double[] sat, double[] val,
-                                  Mat out) {
-            Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HSV);
-            Core.inRange(out, new Scalar(hue[0], sat[0], val[0]),
-                    new Scalar(hue[1], sat[1], val[1]), out);
-        }
-
-        /**
-         * Expands area of lower value in an image.
-         * @param src the Image to erode.
-         * @param kernel the kernel for erosion.
-         * @param anchor the center of the kernel.
-         * @param iterations the number of times to perform the erosion.
-         * @param borderType pixel extrapolation method.
-         * @param borderValue value to be used for a constant border.
-         * @param dst Output Image.
-         */
-        private void cvErode(Mat src, Mat kernel, Point anchor, double iterations,
-                             int borderType, Scalar borderValue, Mat dst) {
-            if (kernel == null) {
-                kernel = new Mat();
-            }
-            if (anchor == null) {
-                anchor = new Point(-1,-1);
-            }
-            if (borderValue == null) {
-                borderValue = new Scalar(-1);
-            }
-            Imgproc.erode(src, dst, kernel, anchor, (int)iterations, borderType, borderValue);
-        }
-
-        /**
-         * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
-         * @param input The image on which to perform the Distance Transform.
-         */
-        private void findContours(Mat input, boolean externalOnly,
-                                  List<MatOfPoint> contours) {
-            Mat hierarchy = new Mat();
-            contours.clear();
-            int mode;
-            if (externalOnly) {
-                mode = Imgproc.RETR_EXTERNAL;
-            }
-            else {
-                mode = Imgproc.RETR_LIST;
-            }
-            int method = Imgproc.CHAIN_APPROX_SIMPLE;
-            Imgproc.findContours(input, contours, hierarchy, mode, method);
-        }
-
-
-        /**
-         * Filters out contours that do not meet certain criteria.
-         * @param inputContours is the input list of contours
-         * @param output is the the output list of contours
-         * @param minArea is the minimum area of a contour that will be kept
-         * @param minPerimeter is the minimum perimeter of a contour that will be kept
-         * @param minWidth minimum width of a contour
-         * @param maxWidth maximum width
-         * @param minHeight minimum height
-         * @param maxHeight maximimum height
-         * @param minVertexCount minimum vertex Count of the contours
-         * @param maxVertexCount maximum vertex Count
-         * @param minRatio minimum ratio of width to height
-         * @param maxRatio maximum ratio of width to height
-         */
-        private void filterContours(List<MatOfPoint> inputContours, double minArea,
-                                    double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-                                            maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-                                            minRatio, double maxRatio, List<MatOfPoint> output) {
-            final MatOfInt hull = new MatOfInt();
-            output.clear();
-            //operation
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final Rect bb = Imgproc.boundingRect(contour);
-                if (bb.width < minWidth || bb.width > maxWidth) continue;
-                if (bb.height < minHeight || bb.height > maxHeight) continue;
-                final double area = Imgproc.contourArea(contour);
-                if (area < minArea) continue;
-                if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-                Imgproc.convexHull(contour, hull);
-                MatOfPoint mopHull = new MatOfPoint();
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int)hull.get(j, 0)[0];
-                    double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
-                }
-                final double solid = 100 * area / Imgproc.contourArea(mopHull);
-                if (solid < solidity[0] || solid > solidity[1]) continue;
-                if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-                final double ratio = bb.width / (double)bb.height;
-                if (ratio < minRatio || ratio > maxRatio) continue;
-                output.add(contour);
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] names;
+        private final String[] paths;
+        private final Mat[] frames;
+        private final List<PipelineConfig> selected;
+        private final ContextPool contexts;
+        private final BatchResult[][] results;
+        private final int lo;
+        private final int hi;
+
+        BatchTask(String[] names, String[] paths, Mat[] frames, List<PipelineConfig> selected,
+                  ContextPool contexts, BatchResult[][] results, int lo, int hi) {
+            this.names = names;
+            this.paths = paths;
+            this.frames = frames;
+            this.selected = selected;
+            this.contexts = contexts;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new BatchTask(names, paths, frames, selected, contexts, results, lo, mid),
+                        new BatchTask(names, paths, frames, selected, contexts, results, mid, hi));
+                return;
             }
-        }
 
-        /**
-         * Compute the convex hulls of contours.
-         * @param inputContours The contours on which to perform the operation.
-         * @param outputContours The contours where the output will be stored.
-         */
-        private void convexHulls(List<MatOfPoint> inputContours,
-                                 ArrayList<MatOfPoint> outputContours) {
-            final MatOfInt hull = new MatOfInt();
-            outputContours.clear();
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final MatOfPoint mopHull = new MatOfPoint();
-                Imgproc.convexHull(contour, hull);
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int) hull.get(j, 0)[0];
-                    double[] point = new double[] {contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
+            // directories are decoded on the worker, recordings were decoded by the reader
+            Mat frame = frames[lo] != null ? frames[lo] : Imgcodecs.imread(paths[lo]);
+            for (int p = 0; p < selected.size(); p++) {
+                PipelineConfig config = selected.get(p);
+                BatchResult result = new BatchResult();
+                result.frame = names[lo];
+                if (frame.empty()) {
+                    result.result = PipelineResult.empty(config.name, 0);
+                } else {
+                    long start = System.nanoTime();
+                    try {
+                        result.result = contexts.process(config, frame, start);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    result.processMs = (System.nanoTime() - start) / 1e6;
                 }
-                outputContours.add(mopHull);
+                results[lo][p] = result;
             }
+            frame.release();
         }
     }
 
-
     /**
-     * HatchPipeline class.
-     *
-     * <p>An OpenCV pipeline generated by GRIP.
+     * Headless entry point: runs the pipelines over stored match frames instead of a live camera.
      *
-     * @author GRIP
+     * <p>Usage: {@code --batch <image directory | recording> [--pipelines cargo,hatch,led]
+     * [--out results.csv | results.jsonl] [--threads n]}
      */
-    public static class HatchPipeline implements VisionPipeline {
-
-        //Outputs
-        private Mat hsvThresholdOutput = new Mat();
-        private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> convexHullsOutput = new ArrayList<MatOfPoint>();
-
-        static {
-            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-        }
-
-        /**
-         * This is the primary method that runs the entire pipeline and updates the outputs.
-         */
-        public void process(Mat source0) {
-            // Step HSV_Threshold0:
-            Mat hsvThresholdInput = source0;
-            double[] hsvThresholdHue = {1.4793227439856729, 47.09409418824053};
-            double[] hsvThresholdSaturation = {106.13017870442516, 239.15756860145288};
-            double[] hsvThresholdValue = {151.95732901040833, 252.52892229400447};
-            hsvThreshold(hsvThresholdInput, hsvThresholdHue, hsvThresholdSaturation, hsvThresholdValue, hsvThresholdOutput);
-
-            // Step Find_Contours0:
-            Mat findContoursInput = hsvThresholdOutput;
-            boolean findContoursExternalOnly = false;
-            findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
-
-            // Step Filter_Contours0:
-            ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-            double filterContoursMinArea = 25.0;
-            double filterContoursMinPerimeter = 80.0;
-            double filterContoursMinWidth = 9.0;
-            double filterContoursMaxWidth = 1000.0;
-            double filterContoursMinHeight = 5.0;
-            double filterContoursMaxHeight = 1000.0;
-            double[] filterContoursSolidity = {0, 100};
-            double filterContoursMaxVertices = 1000000.0;
-            double filterContoursMinVertices = 0.0;
-            double filterContoursMinRatio = 0.0;
-            double filterContoursMaxRatio = 1000.0;
-            filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-
-            // Step Convex_Hulls0:
-            ArrayList<MatOfPoint> convexHullsContours = filterContoursOutput;
-            convexHulls(convexHullsContours, convexHullsOutput);
-
-        }
-
-        /**
-         * This method is a generated getter for the output of a HSV_Threshold.
-         * @return Mat output from HSV_Threshold.
-         */
-        public Mat hsvThresholdOutput() {
-            return hsvThresholdOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Find_Contours.
-         * @return ArrayList<MatOfPoint> output from Find_Contours.
-         */
-        public ArrayList<MatOfPoint> findContoursOutput() {
-            return findContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Filter_Contours.
-         * @return ArrayList<MatOfPoint> output from Filter_Contours.
-         */
-        public ArrayList<MatOfPoint> filterContoursOutput() {
-            return filterContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Convex_Hulls.
-         * @return ArrayList<MatOfPoint> output from Convex_Hulls.
-         */
-        public ArrayList<MatOfPoint> convexHullsOutput() {
-            return convexHullsOutput;
-        }
-
-
-        /**
-         * Segment an image based on hue, saturation, and value ranges.
-         *
-         * @param input The image on which to perform the HSL threshold.
-         * @param hue The min and max hue
-         * @param sat The min and max saturation
-         * @param val The min and max value
-         * @param out The image in which to store the output.
-         */
-        private void hsvThreshold(Mat input, double[] hue, double[] sat, double[] val,
-                                  Mat out) {
-            Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HSV);
-            Core.inRange(out, new Scalar(hue[0], sat[0], val[0]),
-                    new Scalar(hue[1], sat[1], val[1]), out);
-        }
-
-        /**
-         * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
-         * @param input The image on which to perform the Distance Transform.
-         */
-        private void findContours(Mat input, boolean externalOnly,
-                                  List<MatOfPoint> contours) {
-            Mat hierarchy = new Mat();
-            contours.clear();
-            int mode;
-            if (externalOnly) {
-                mode = Imgproc.RETR_EXTERNAL;
-            }
-            else {
-                mode = Imgproc.RETR_LIST;
+    public static void batchMain(String... args) {
+        String input = null;
+        String output = "batch-results.csv";
+        String pipelineNames = "cargo,hatch,led";
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if ("--pipelines".equals(args[i]) && i + 1 < args.length) {
+                pipelineNames = args[++i];
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                input = args[i];
             }
-            int method = Imgproc.CHAIN_APPROX_SIMPLE;
-            Imgproc.findContours(input, contours, hierarchy, mode, method);
-        }
-
-
-        /**
-         * Filters out contours that do not meet certain criteria.
-         * @param inputContours is the input list of contours
-         * @param output is the the output list of contours
-         * @param minArea is the minimum area of a contour that will be kept
-         * @param minPerimeter is the minimum perimeter of a contour that will be kept
-         * @param minWidth minimum width of a contour
-         * @param maxWidth maximum width
-         * @param minHeight minimum height
-         * @param maxHeight maximimum height
-         * @param minVertexCount minimum vertex Count of the contours
-         * @param maxVertexCount maximum vertex Count
-         * @param minRatio minimum ratio of width to height
-         * @param maxRatio maximum ratio of width to height
-         */
-        private void filterContours(List<MatOfPoint> inputContours, double minArea,
-                                    double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-                                            maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-                                            minRatio, double maxRatio, List<MatOfPoint> output) {
-            final MatOfInt hull = new MatOfInt();
-            output.clear();
-            //operation
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final Rect bb = Imgproc.boundingRect(contour);
-                if (bb.width < minWidth || bb.width > maxWidth) continue;
-                if (bb.height < minHeight || bb.height > maxHeight) continue;
-                final double area = Imgproc.contourArea(contour);
-                if (area < minArea) continue;
-                if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-                Imgproc.convexHull(contour, hull);
-                MatOfPoint mopHull = new MatOfPoint();
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int)hull.get(j, 0)[0];
-                    double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
-                }
-                final double solid = 100 * area / Imgproc.contourArea(mopHull);
-                if (solid < solidity[0] || solid > solidity[1]) continue;
-                if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-                final double ratio = bb.width / (double)bb.height;
-                if (ratio < minRatio || ratio > maxRatio) continue;
-                output.add(contour);
+        }
+        if (input == null) {
+            System.err.println("usage: --batch <image directory | recording> [--pipelines cargo,hatch,led]"
+                    + " [--out results.csv | results.jsonl] [--threads n]");
+            return;
+        }
+
+        List<PipelineConfig> selected = new ArrayList<>();
+        for (String name : pipelineNames.split(",")) {
+            PipelineConfig config = PipelineConfig.forName(name.trim());
+            if (config == null) {
+                System.err.println("unknown pipeline '" + name + "'");
+                return;
             }
+            selected.add(config);
         }
+        boolean jsonl = output.endsWith(".jsonl");
+
+        NativeLibraries.load();
 
-        /**
-         * Compute the convex hulls of contours.
-         * @param inputContours The contours on which to perform the operation.
-         * @param outputContours The contours where the output will be stored.
-         */
-        private void convexHulls(List<MatOfPoint> inputContours,
-                                 ArrayList<MatOfPoint> outputContours) {
-            final MatOfInt hull = new MatOfInt();
-            outputContours.clear();
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final MatOfPoint mopHull = new MatOfPoint();
-                Imgproc.convexHull(contour, hull);
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int) hull.get(j, 0)[0];
-                    double[] point = new double[] {contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
+        // a directory is a list of still frames, anything else is treated as a recording
+        List<String> files = null;
+        VideoCapture recording = null;
+        Path inputPath = Paths.get(input);
+        if (Files.isDirectory(inputPath)) {
+            files = new ArrayList<>();
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(inputPath, "*.{png,jpg,jpeg,bmp}")) {
+                for (Path file : dir) {
+                    files.add(file.toString());
                 }
-                outputContours.add(mopHull);
+            } catch (IOException ex) {
+                System.err.println("could not list '" + input + "': " + ex);
+                return;
+            }
+            Collections.sort(files);
+        } else {
+            recording = new VideoCapture(input);
+            if (!recording.isOpened()) {
+                System.err.println("could not open recording '" + input + "'");
+                return;
             }
         }
 
+        // frames are handed to the pool in chunks so a long recording never sits in memory at once
+        int chunkSize = threads * 8;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ContextPool contexts = new ContextPool(threads);
+        long frameCount = 0;
+        long start = System.nanoTime();
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(output))) {
+            if (!jsonl) {
+                out.write("frame,pipeline,found,minX,maxX,centerX,hulls,contoursFound,contoursKept,processMs");
+                out.newLine();
+            }
+            int next = 0;
+            boolean more = true;
+            while (more) {
+                String[] names = new String[chunkSize];
+                String[] paths = new String[chunkSize];
+                Mat[] frames = new Mat[chunkSize];
+                int count = 0;
+                while (count < chunkSize) {
+                    if (files != null) {
+                        if (next >= files.size()) {
+                            more = false;
+                            break;
+                        }
+                        paths[count] = files.get(next);
+                        names[count] = Paths.get(paths[count]).getFileName().toString();
+                    } else {
+                        Mat frame = new Mat();
+                        if (!recording.read(frame)) {
+                            frame.release();
+                            more = false;
+                            break;
+                        }
+                        frames[count] = frame;
+                        names[count] = Integer.toString(next);
+                    }
+                    next++;
+                    count++;
+                }
+                if (count == 0) {
+                    break;
+                }
 
+                BatchResult[][] results = new BatchResult[count][selected.size()];
+                pool.invoke(new BatchTask(names, paths, frames, selected, contexts, results, 0, count));
+                for (BatchResult[] frameResults : results) {
+                    for (BatchResult result : frameResults) {
+                        out.write(jsonl ? result.toJson() : result.toCsv());
+                        out.newLine();
+                    }
+                }
+                frameCount += count;
+            }
+        } catch (IOException ex) {
+            System.err.println("could not write '" + output + "': " + ex);
+            return;
+        } finally {
+            pool.shutdown();
+            contexts.releaseAll();
+            if (recording != null) {
+                recording.release();
+            }
+        }
 
-
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Processed " + frameCount + " frames with " + selected.size() + " pipeline(s) on "
+                + threads + " thread(s) in " + String.format("%.2f", seconds) + " s ("
+                + String.format("%.1f", frameCount / seconds) + " frames/s), results in " + output);
     }
 
     /**
-     * GripPipeline class.
+     * Fits a pipeline's HSV ranges to labelled frames and prints them as a config file pipelines
+     * entry (see the JSON format at the top of this file). With {@code --merge} the ranges are written
+     * into that pipeline's entry of an existing config file instead, leaving everything else in the
+     * file as it was; the running program's config watcher then picks them up.
      *
-     * <p>An OpenCV pipeline generated by GRIP.
+     * <p>The directory holds the frames, plus for each frame either a {@code <frame>.mask.png} (non
+     * zero on target pixels) or lines in {@code boxes.csv}. Frames with neither count as pure
+     * background, which is a good way to feed in the venue's lights and bumpers.
      *
-     * @author GRIP
+     * <p>Usage: {@code --calibrate <cargo|hatch|led> <frame directory> [--merge /boot/frc.json] [--threads n]}
      */
-    public static class LedPipeline implements VisionPipeline {
-
-        //Outputs
-        private Mat hsvThresholdOutput = new Mat();
-        private Mat cvErodeOutput = new Mat();
-        private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
-        private ArrayList<MatOfPoint> convexHullsOutput = new ArrayList<MatOfPoint>();
-
-        static {
-            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-        }
-
-        /**
-         * This is the primary method that runs the entire pipeline and updates the outputs.
-         */
-        public void process(Mat source0) {
-            // Step HSV_Threshold0:
-            Mat hsvThresholdInput = source0;
-            double[] hsvThresholdHue = {63.129496402877685, 106.27986348122869};
-            double[] hsvThresholdSaturation = {36.690647482014384, 124.45392491467575};
-            double[] hsvThresholdValue = {130.71043165467626, 183.1996587030717};
-            hsvThreshold(hsvThresholdInput, hsvThresholdHue, hsvThresholdSaturation, hsvThresholdValue, hsvThresholdOutput);
-
-            // Step CV_erode0:
-            Mat cvErodeSrc = hsvThresholdOutput;
-            Mat cvErodeKernel = new Mat();
-            Point cvErodeAnchor = new Point(-1, -1);
-            double cvErodeIterations = 1.0;
-            int cvErodeBordertype = Core.BORDER_CONSTANT;
-            Scalar cvErodeBordervalue = new Scalar(-1);
-            cvErode(cvErodeSrc, cvErodeKernel, cvErodeAnchor, cvErodeIterations, cvErodeBordertype, cvErodeBordervalue, cvErodeOutput);
-
-            // Step Find_Contours0:
-            Mat findContoursInput = cvErodeOutput;
-            boolean findContoursExternalOnly = false;
-            findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
-
-            // Step Filter_Contours0:
-            ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-            double filterContoursMinArea = 30.0;
-            double filterContoursMinPerimeter = 10.0;
-            double filterContoursMinWidth = 10.0;
-            double filterContoursMaxWidth = 1000.0;
-            double filterContoursMinHeight = 10.0;
-            double filterContoursMaxHeight = 1000.0;
-            double[] filterContoursSolidity = {0, 100};
-            double filterContoursMaxVertices = 1000000.0;
-            double filterContoursMinVertices = 0.0;
-            double filterContoursMinRatio = 0.0;
-            double filterContoursMaxRatio = 1000.0;
-            filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-
-            // Step Convex_Hulls0:
-            ArrayList<MatOfPoint> convexHullsContours = filterContoursOutput;
-            convexHulls(convexHullsContours, convexHullsOutput);
-
-        }
-
-        /**
-         * This method is a generated getter for the output of a HSV_Threshold.
-         * @return Mat output from HSV_Threshold.
-         */
-        public Mat hsvThresholdOutput() {
-            return hsvThresholdOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a CV_erode.
-         * @return Mat output from CV_erode.
-         */
-        public Mat cvErodeOutput() {
-            return cvErodeOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Find_Contours.
-         * @return ArrayList<MatOfPoint> output from Find_Contours.
-         */
-        public ArrayList<MatOfPoint> findContoursOutput() {
-            return findContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Filter_Contours.
-         * @return ArrayList<MatOfPoint> output from Filter_Contours.
-         */
-        public ArrayList<MatOfPoint> filterContoursOutput() {
-            return filterContoursOutput;
-        }
-
-        /**
-         * This method is a generated getter for the output of a Convex_Hulls.
-         * @return ArrayList<MatOfPoint> output from Convex_Hulls.
-         */
-        public ArrayList<MatOfPoint> convexHullsOutput() {
-            return convexHullsOutput;
-        }
-
-
-        /**
-         * Segment an image based on hue, saturation, and value ranges.
-         *
-         * @param input The image on which to perform the HSL threshold.
-         * @param hue The min and max hue
-         * @param sat The min and max saturation
-         * @param val The min and max value
-         */
-        private void hsvThreshold(Mat input, double[] hue, double[] sat, double[] val,
-                                  Mat out) {
-            Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HSV);
-            Core.inRange(out, new Scalar(hue[0], sat[0], val[0]),
-                    new Scalar(hue[1], sat[1], val[1]), out);
-        }
-
-        /**
-         * Expands area of lower value in an image.
-         * @param src the Image to erode.
-         * @param kernel the kernel for erosion.
-         * @param anchor the center of the kernel.
-         * @param iterations the number of times to perform the erosion.
-         * @param borderType pixel extrapolation method.
-         * @param borderValue value to be used for a constant border.
-         * @param dst Output Image.
-         */
-        private void cvErode(Mat src, Mat kernel, Point anchor, double iterations,
-                             int borderType, Scalar borderValue, Mat dst) {
-            if (kernel == null) {
-                kernel = new Mat();
-            }
-            if (anchor == null) {
-                anchor = new Point(-1,-1);
-            }
-            if (borderValue == null) {
-                borderValue = new Scalar(-1);
-            }
-            Imgproc.erode(src, dst, kernel, anchor, (int)iterations, borderType, borderValue);
-        }
-
-        /**
-         * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
-         * @param input The image on which to perform the Distance Transform.
-         */
-        private void findContours(Mat input, boolean externalOnly,
-                                  List<MatOfPoint> contours) {
-            Mat hierarchy = new Mat();
-            contours.clear();
-            int mode;
-            if (externalOnly) {
-                mode = Imgproc.RETR_EXTERNAL;
-            }
-            else {
-                mode = Imgproc.RETR_LIST;
-            }
-            int method = Imgproc.CHAIN_APPROX_SIMPLE;
-            Imgproc.findContours(input, contours, hierarchy, mode, method);
-        }
-
-
-        /**
-         * Filters out contours that do not meet certain criteria.
-         * @param inputContours is the input list of contours
-         * @param output is the the output list of contours
-         * @param minArea is the minimum area of a contour that will be kept
-         * @param minPerimeter is the minimum perimeter of a contour that will be kept
-         * @param minWidth minimum width of a contour
-         * @param maxWidth maximum width
-         * @param minHeight minimum height
-         * @param maxHeight maximimum height
-         * @param minVertexCount minimum vertex Count of the contours
-         * @param maxVertexCount maximum vertex Count
-         * @param minRatio minimum ratio of width to height
-         * @param maxRatio maximum ratio of width to height
-         */
-        private void filterContours(List<MatOfPoint> inputContours, double minArea,
-                                    double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-                                            maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-                                            minRatio, double maxRatio, List<MatOfPoint> output) {
-            final MatOfInt hull = new MatOfInt();
-            output.clear();
-            //operation
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final Rect bb = Imgproc.boundingRect(contour);
-                if (bb.width < minWidth || bb.width > maxWidth) continue;
-                if (bb.height < minHeight || bb.height > maxHeight) continue;
-                final double area = Imgproc.contourArea(contour);
-                if (area < minArea) continue;
-                if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-                Imgproc.convexHull(contour, hull);
-                MatOfPoint mopHull = new MatOfPoint();
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int)hull.get(j, 0)[0];
-                    double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
-                }
-                final double solid = 100 * area / Imgproc.contourArea(mopHull);
-                if (solid < solidity[0] || solid > solidity[1]) continue;
-                if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-                final double ratio = bb.width / (double)bb.height;
-                if (ratio < minRatio || ratio > maxRatio) continue;
-                output.add(contour);
+    public static void calibrateMain(String... args) {
+        String pipelineName = null;
+        String input = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if ("--merge".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (pipelineName == null) {
+                pipelineName = args[i];
+            } else {
+                input = args[i];
             }
         }
+        if (input == null) {
+            System.err.println("usage: --calibrate <cargo|hatch|led> <frame directory> [--merge config.json]"
+                    + " [--threads n]");
+            return;
+        }
+        PipelineConfig config = PipelineConfig.forName(pipelineName);
+        if (config == null) {
+            System.err.println("unknown pipeline '" + pipelineName + "'");
+            return;
+        }
+
+        NativeLibraries.load();
 
-        /**
-         * Compute the convex hulls of contours.
-         * @param inputContours The contours on which to perform the operation.
-         * @param outputContours The contours where the output will be stored.
-         */
-        private void convexHulls(List<MatOfPoint> inputContours,
-                                 ArrayList<MatOfPoint> outputContours) {
-            final MatOfInt hull = new MatOfInt();
-            outputContours.clear();
-            for (int i = 0; i < inputContours.size(); i++) {
-                final MatOfPoint contour = inputContours.get(i);
-                final MatOfPoint mopHull = new MatOfPoint();
-                Imgproc.convexHull(contour, hull);
-                mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-                for (int j = 0; j < hull.size().height; j++) {
-                    int index = (int) hull.get(j, 0)[0];
-                    double[] point = new double[] {contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                    mopHull.put(j, 0, point);
+        List<String> frames = new ArrayList<>();
+        Map<String, List<Rect>> boxes;
+        Path inputPath = Paths.get(input);
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(inputPath, "*.{png,jpg,jpeg,bmp}")) {
+            for (Path file : dir) {
+                if (!file.getFileName().toString().endsWith(".mask.png")) {
+                    frames.add(file.toString());
                 }
-                outputContours.add(mopHull);
             }
+            boxes = HsvCalibrator.readBoxes(inputPath.resolve("boxes.csv"));
+        } catch (IOException ex) {
+            System.err.println("could not read '" + input + "': " + ex);
+            return;
         }
+        Collections.sort(frames);
 
+        long start = System.nanoTime();
+        HsvCalibrator.Histogram histogram;
+        try {
+            histogram = HsvCalibrator.HistogramWorker.count(frames, boxes, threads);
+        } catch (InterruptedException | ExecutionException ex) {
+            System.err.println("could not count '" + input + "': " + ex);
+            return;
+        }
+        double histogramSeconds = (System.nanoTime() - start) / 1e9;
+        HsvCalibrator.Fit fit = HsvCalibrator.fit(histogram);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (fit == null) {
+            System.err.println("no target pixels in '" + input + "': add masks or boxes.csv");
+            return;
+        }
 
+        JsonObject ranges = new JsonObject();
+        ranges.add("hue", pair(fit.hueMin(), fit.hueMax()));
+        ranges.add("saturation", pair(fit.saturationMin(), fit.saturationMax()));
+        ranges.add("value", pair(fit.valueMin(), fit.valueMax()));
+
+        System.out.println(String.format("Fitted %s on %d frames in %.2f s (histograms %.2f s): IoU %.3f,"
+                        + " precision %.3f, recall %.3f", config.name, frames.size(), seconds, histogramSeconds,
+                fit.iou, fit.precision, fit.recall));
+        System.out.println(String.format("Was hue [%.1f, %.1f] saturation [%.1f, %.1f] value [%.1f, %.1f]",
+                config.hueMin, config.hueMax, config.saturationMin, config.saturationMax,
+                config.valueMin, config.valueMax));
+        if (output == null) {
+            JsonObject pipelines = new JsonObject();
+            pipelines.add(config.name, ranges);
+            JsonObject top = new JsonObject();
+            top.add("pipelines", pipelines);
+            System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(top));
+            return;
+        }
+        try {
+            mergeRanges(Paths.get(output), config.name, ranges);
+            System.out.println("Merged the " + config.name + " ranges into " + output);
+        } catch (IOException ex) {
+            System.err.println("could not merge into '" + output + "': " + ex);
+        } catch (ConfigException ex) {
+            System.err.println("not merging into '" + output + "', the result would not be a valid config: "
+                    + ex.getMessage());
+        }
+    }
 
+    /**
+     * Set the hue, saturation and value of one pipeline in a config file, keeping the rest of the
+     * file. The merged file is checked with {@link ConfigReader} and then moved over the original in
+     * one step, so the config watcher never sees a half written or invalid file. Formatting is not
+     * kept: the file is written back pretty printed.
+     */
+    static void mergeRanges(Path configPath, String pipeline, JsonObject ranges) throws IOException, ConfigException {
+        JsonElement parsed;
+        try (BufferedReader reader = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+            parsed = new JsonParser().parse(reader);
+        } catch (JsonParseException ex) {
+            throw new ConfigException("$", "not JSON: " + ex.getMessage());
+        }
+        if (!parsed.isJsonObject()) {
+            throw new ConfigException("$", "must be a JSON object");
+        }
+        JsonObject top = parsed.getAsJsonObject();
+        if (!top.has("pipelines") || !top.get("pipelines").isJsonObject()) {
+            top.add("pipelines", new JsonObject());
+        }
+        JsonObject pipelines = top.getAsJsonObject("pipelines");
+        if (!pipelines.has(pipeline) || !pipelines.get(pipeline).isJsonObject()) {
+            pipelines.add(pipeline, new JsonObject());
+        }
+        JsonObject entry = pipelines.getAsJsonObject(pipeline);
+        for (Map.Entry<String, JsonElement> range : ranges.entrySet()) {
+            entry.add(range.getKey(), range.getValue());
+        }
 
+        Path absolute = configPath.toAbsolutePath();
+        Path merged = absolute.resolveSibling("." + absolute.getFileName() + ".calibrated");
+        try {
+            Files.write(merged, new GsonBuilder().setPrettyPrinting().create().toJson(top)
+                    .getBytes(StandardCharsets.UTF_8));
+            ConfigReader.read(merged);
+            Files.move(merged, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(merged);
+        }
     }
 
+    private static JsonArray pair(double min, double max) {
+        JsonArray pair = new JsonArray();
+        pair.add(min);
+        pair.add(max);
+        return pair;
+    }
 
     /**
-     * Finds the minimum and maximum X value of a given ArrayList of MatOfPoints
-     * @param contours An ArrayList of a MatOfPoints
-     * @return An array, where index 0 is the left (minimum) X, and index 1 is the right (maximum) X value.
+     * Training run for the class data sharing archive (see the runCamera script): walk the same
+     * startup path as a real launch, minus the cameras and the robot, so every class a match
+     * start needs gets loaded. Prints the time to each pipeline's first result.
+     *
+     * <p>Usage: {@code --train [config.json]}
      */
-    private static int[] findMinAndMaxX(ArrayList<MatOfPoint> contours) {
-        int[] minMax = {Integer.MAX_VALUE,Integer.MIN_VALUE}; //Where the first value is the left x and the second is the max X
-        for(MatOfPoint contour : contours) {
-            for(int i = 0; i < contour.toArray().length; i++) {
-                if(contour.toArray()[i].x <minMax[0]) {
-                    minMax[0] = (int)contour.toArray()[i].x;
-                }
-                if(contour.toArray()[i].x > minMax[1]) {
-                    minMax[1] = (int)contour.toArray()[i].x;
-                }
+    static void trainMain(String... args) {
+        if (args.length > 0) {
+            configFile = args[0];
+        }
+        // a missing config still loads the reader's classes
+        VisionConfig visionConfig = readConfig();
+        StartupTimer.log("config read");
+        NativeLibraries.load();
+        PerformanceConfig performance = visionConfig != null ? visionConfig.performance : PerformanceConfig.DEFAULT;
+
+        NetworkTableInstance ntinst = NetworkTableInstance.create();
+        NetworkTable table = ntinst.getTable("vision");
+        Random random = new Random(7528);
+        for (PipelineConfig builtIn : Arrays.asList(PipelineConfig.CARGO, PipelineConfig.HATCH, PipelineConfig.LED)) {
+            PipelineConfig config = visionConfig != null ? visionConfig.pipeline(builtIn) : builtIn;
+            PipelineEntries entries = new PipelineEntries(table, config.name);
+            PipelineContext context = new PipelineContext();
+            Mat frame = new Mat(480, 640, CvType.CV_8UC3);
+            for (int i = 0; i < performance.warmUpFrames; i++) {
+                StagedPipelineRunner.drawSyntheticFrame(config, frame, random);
+                PipelineResult result = GripPipeline.process(config, context, frame, System.nanoTime());
+                entries.publish(result);
+                entries.track(result.found(), result.centerX(), result.frameTime);
             }
+            frame.release();
+            context.release();
         }
-
-        return minMax;
+        ntinst.close();
+        StartupTimer.log("training done");
     }
+
     /**
      * Main.
      */
     public static void main(String... args) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            batchMain(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--calibrate".equals(args[0])) {
+            calibrateMain(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--train".equals(args[0])) {
+            trainMain(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         if (args.length > 0) {
             configFile = args[0];
         }
 
         // read configuration
-        if (!readConfig()) {
+        VisionConfig visionConfig = readConfig();
+        if (visionConfig == null) {
             return;
         }
+        StartupTimer.log("config read");
+        PerformanceConfig performance = visionConfig.performance;
+
+        // open the cameras (slow USB enumeration) and load OpenCV while NetworkTables starts up
+        CompletableFuture<List<VideoSource>> camerasStarted = CompletableFuture.supplyAsync(() -> {
+            List<VideoSource> started = new ArrayList<>();
+            for (CameraConfig cameraConfig : visionConfig.cameras) {
+                started.add(startCamera(cameraConfig));
+            }
+            StartupTimer.log("cameras started");
+            return started;
+        });
+        CompletableFuture<Void> nativesLoaded = CompletableFuture.runAsync(NativeLibraries::load);
 
         // start NetworkTables
         NetworkTableInstance ntinst = NetworkTableInstance.getDefault();
-        if (server) {
+        if (visionConfig.server) {
             System.out.println("Setting up NetworkTables server");
             ntinst.startServer();
         } else {
-            System.out.println("Setting up NetworkTables client for team " + team);
-            ntinst.startClientTeam(team);
+            System.out.println("Setting up NetworkTables client for team " + visionConfig.team);
+            ntinst.startClientTeam(visionConfig.team);
         }
 
         NetworkTable  table = ntinst.getTable("vision");
@@ -920,76 +705,174 @@ public final class Main {
         NetworkTableEntry cargoCenterPix= table.getEntry("cargoCenterPix");
         NetworkTableEntry hatchCenterPix = table.getEntry("hatchCenterPix");
         NetworkTableEntry vtCenterPix = table.getEntry("vtCenterPix");
+        NetworkTableEntry vtDistance = table.getEntry("vtDistance");
+        NetworkTableEntry vtAngle = table.getEntry("vtAngle");
+        NetworkTableEntry vtSkew = table.getEntry("vtSkew");
+        PipelineEntries cargoEntries = new PipelineEntries(table, PipelineConfig.CARGO.name);
+        PipelineEntries hatchEntries = new PipelineEntries(table, PipelineConfig.HATCH.name);
+        PipelineEntries vtEntries = new PipelineEntries(table, PipelineConfig.LED.name);
         ntinst.startClientTeam(7528);
         ntinst.startDSClient();
 
-        // start cameras
-        List<VideoSource> cameras = new ArrayList<>();
-        for (CameraConfig cameraConfig : cameraConfigs) {
-            cameras.add(startCamera(cameraConfig));
-        }
+        StartupTimer.log("NetworkTables started");
+
+        List<VideoSource> cameras = camerasStarted.join();
+        nativesLoaded.join();
 
         // start image processing on camera 0 if present
         if (cameras.size() >= 1) {
             /*
                         [CARGO]
              */
-            VisionThread cargoVisionThread = new VisionThread(cameras.get(0),
-                    new CargoPipeline(), pipeline -> {
-                ArrayList<MatOfPoint> contours =  pipeline.convexHullsOutput();
-                int[] minMax = findMinAndMaxX(contours);
-
-                if(minMax[0] != Integer.MAX_VALUE) { //If the ball IS found
+            StagedPipelineRunner cargoVisionThread = new StagedPipelineRunner(cameras.get(0),
+                    visionConfig.pipeline(PipelineConfig.CARGO), result -> {
+                cargoEntries.publish(result);
+                cargoEntries.track(result.found(), result.centerX(), result.frameTime);
+                if(result.found()) { //If the ball IS found
                     isTrackingCargo.setBoolean(true);
-                    cargoCenterPix.setDouble((minMax[0] + minMax[1]) / 2.0);
+                    cargoCenterPix.setDouble(result.centerX());
 
                 } else { //If the ball is NOT found
                     isTrackingCargo.setBoolean(false);
                     cargoCenterPix.setDouble(-1);
                 }
-                System.out.println("Center pixel CARGO: " + ((minMax[0] + minMax[1]) / 2.0));
+                System.out.println("Center pixel CARGO: " + result.centerX());
             });
 
             /*
                     [HATCH]
              */
-            VisionThread hatchVisionThread = new VisionThread(cameras.get(0),
-                    new HatchPipeline(), pipeline -> {
-                ArrayList<MatOfPoint> contours = pipeline.convexHullsOutput();
-                int[] minMax = findMinAndMaxX(contours);
-
-                if(minMax[0] != Integer.MAX_VALUE) {
+            StagedPipelineRunner hatchVisionThread = new StagedPipelineRunner(cameras.get(0),
+                    visionConfig.pipeline(PipelineConfig.HATCH), result -> {
+                hatchEntries.publish(result);
+                hatchEntries.track(result.found(), result.centerX(), result.frameTime);
+                if(result.found()) {
                     isTrackingHatch.setBoolean(true);
-                    hatchCenterPix.setDouble((minMax[0] + minMax[1]) / 2.0);
+                    hatchCenterPix.setDouble(result.centerX());
                 } else {
                     isTrackingHatch.setBoolean(false);
                     hatchCenterPix.setDouble(-1);
                 }
-                System.out.println("Center pixel HATCH: " + ((minMax[0] + minMax[1]) / 2.0));
+                System.out.println("Center pixel HATCH: " + result.centerX());
             });
 
             /*
                     [VISION TARGETS]
              */
 
-            VisionThread vtVisionThread = new VisionThread(cameras.get(0),
-                    new LedPipeline(), pipeline -> {
-                ArrayList<MatOfPoint> contours = pipeline.convexHullsOutput;
-                int[] minMax = findMinAndMaxX(contours);
-
-                if(minMax[0] != Integer.MAX_VALUE) {
+            StagedPipelineRunner vtVisionThread = new StagedPipelineRunner(cameras.get(0),
+                    visionConfig.pipeline(PipelineConfig.LED), result -> {
+                vtEntries.publish(result);
+                VisionTarget target = result.bestTarget();
+                vtEntries.track(target != null, target != null ? target.centerX : -1, result.frameTime);
+                if(target != null) {
                     isTrackingTargets.setBoolean(true);
-                    vtCenterPix.setDouble((minMax[0] + minMax[1]) / 2.0);
+                    vtCenterPix.setDouble(target.centerX);
+                    vtDistance.setDouble(target.poseValid ? target.distance : -1);
+                    vtAngle.setDouble(target.poseValid ? target.angle : 0);
+                    vtSkew.setDouble(target.poseValid ? target.skew : 0);
                 } else {
                     isTrackingTargets.setBoolean(false);
                     vtCenterPix.setDouble(-1);
+                    vtDistance.setDouble(-1);
+                    vtAngle.setDouble(0);
+                    vtSkew.setDouble(0);
                 }
-                System.out.println("Center pixel VISION TARGETS: " + ((minMax[0] + minMax[1]) / 2.0));
+                System.out.println("Center pixel VISION TARGETS: " + (target != null ? target.centerX : -1));
             });
 
+            // the camera's rate while tracking and 10 fps while searching, both scaled down by the CPU
+            // ceiling; disabled pipelines are paused outright
+            PerformanceGovernor performanceGovernor = new PerformanceGovernor(performance.cpuCeiling);
+            int cameraFps = cameras.get(0).getVideoMode().fps;
+            double fullFps = cameraFps > 0 ? cameraFps : 30;
+            FrameRateGovernor cargoGovernor = new FrameRateGovernor(fullFps,
+                    performance.searchFps, 0, performance.lostSeconds);
+            FrameRateGovernor hatchGovernor = new FrameRateGovernor(fullFps,
+                    performance.searchFps, 0, performance.lostSeconds);
+            FrameRateGovernor vtGovernor = new FrameRateGovernor(fullFps,
+                    performance.searchFps, 0, performance.lostSeconds);
+            cargoVisionThread.setGovernor(cargoGovernor);
+            hatchVisionThread.setGovernor(hatchGovernor);
+            vtVisionThread.setGovernor(vtGovernor);
+            performanceGovernor.register(cameras.get(0), cargoGovernor);
+            performanceGovernor.register(cameras.get(0), hatchGovernor);
+            performanceGovernor.register(cameras.get(0), vtGovernor);
+            cargoVisionThread.setCopyBytesListener(cargoEntries::publishCopyBytes);
+            hatchVisionThread.setCopyBytesListener(hatchEntries::publishCopyBytes);
+            vtVisionThread.setCopyBytesListener(vtEntries::publishCopyBytes);
+            if (performance.debugStreams) {
+                cargoVisionThread.enableDebugStream();
+                hatchVisionThread.enableDebugStream();
+                vtVisionThread.enableDebugStream();
+            }
+            cargoEntries.bindEnabled(cargoVisionThread::setEnabled, true);
+            hatchEntries.bindEnabled(hatchVisionThread::setEnabled, false); //Hatch is off until the robot asks for it
+            vtEntries.bindEnabled(vtVisionThread::setEnabled, true);
+
+            // warm the pipelines in parallel; this doesn't wait on the robot or the field network.
+            // Plain threads rather than the common pool, so the striped image ops warm up too.
+            Executor warmUpThreads = task -> new Thread(task, "warm-up").start();
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(() -> cargoVisionThread.warmUp(performance.warmUpFrames), warmUpThreads),
+                    CompletableFuture.runAsync(() -> hatchVisionThread.warmUp(performance.warmUpFrames), warmUpThreads),
+                    CompletableFuture.runAsync(() -> vtVisionThread.warmUp(performance.warmUpFrames), warmUpThreads)).join();
+            StartupTimer.log("pipelines warmed up");
+
+            // pipelines wanting different exposures take turns at the camera
+            ProfileMultiplexer multiplexer = null;
+            List<StagedPipelineRunner> runners = Arrays.asList(cargoVisionThread, hatchVisionThread, vtVisionThread);
+            long profiles = runners.stream().map(runner -> runner.config.profile).distinct().count();
+            if (profiles > 1 && cameras.get(0) instanceof VideoCamera) {
+                multiplexer = new ProfileMultiplexer((VideoCamera) cameras.get(0), visionConfig.cameras.get(0));
+                for (StagedPipelineRunner runner : runners) {
+                    runner.setMultiplexer(multiplexer);
+                }
+            }
+            ProfileMultiplexer cameraMultiplexer = multiplexer;
+
+            LatencyMonitor latencyMonitor = performance.latencyPort > 0 ? new LatencyMonitor() : null;
+            if (latencyMonitor != null) {
+                for (StagedPipelineRunner runner : runners) {
+                    runner.setLatencyMonitor(latencyMonitor);
+                }
+            }
+
+            HealthMonitor healthMonitor = new HealthMonitor(table.getEntry("health"));
+            healthMonitor.register(cameras.get(0), cargoVisionThread);
+            healthMonitor.register(cameras.get(0), hatchVisionThread);
+            healthMonitor.register(cameras.get(0), vtVisionThread);
+
             cargoVisionThread.start(); //Start cargo thread
-            //hatchVisionThread.start(); //Start hatch thread
+            hatchVisionThread.start(); //Start hatch thread
             vtVisionThread.start(); //Start vision target thread
+            performanceGovernor.start();
+            healthMonitor.start();
+            if (latencyMonitor != null) {
+                try {
+                    latencyMonitor.start(performance.latencyPort);
+                } catch (IOException ex) {
+                    System.err.println("Could not serve frame latency on port " + performance.latencyPort + ": " + ex);
+                }
+            }
+
+            // apply edits to the config file without a restart; this never blocks a frame, the
+            // runners pick up their new config at the next grab
+            new ConfigWatcher(Paths.get(configFile), reloaded -> {
+                cargoVisionThread.setConfig(keepProfile(cargoVisionThread.config,
+                        reloaded.pipeline(PipelineConfig.CARGO)));
+                hatchVisionThread.setConfig(keepProfile(hatchVisionThread.config,
+                        reloaded.pipeline(PipelineConfig.HATCH)));
+                vtVisionThread.setConfig(keepProfile(vtVisionThread.config,
+                        reloaded.pipeline(PipelineConfig.LED)));
+                for (int i = 0; i < cameras.size() && i < reloaded.cameras.size(); i++) {
+                    if (i == 0 && cameraMultiplexer != null) {
+                        cameraMultiplexer.setBase(reloaded.cameras.get(0));
+                    } else if (cameras.get(i) instanceof UsbCamera) {
+                        applyCameraSettings((UsbCamera) cameras.get(i), reloaded.cameras.get(i));
+                    }
+                }
+            }).start();
         }
 
         // loop forever
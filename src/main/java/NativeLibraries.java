@@ -0,0 +1,28 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+/**
+ * Loads the OpenCV native library exactly once per process, whichever entry point or class gets
+ * there first.
+ */
+final class NativeLibraries {
+    private static boolean loaded;
+
+    private NativeLibraries() {
+    }
+
+    static synchronized void load() {
+        if (!loaded) {
+            long start = System.nanoTime();
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            loaded = true;
+            System.out.printf("Loaded %s in %.0f ms%n", Core.NATIVE_LIBRARY_NAME, (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel versions of the per-pixel pipeline steps. The frame is split into horizontal stripes
+ * which run on a shared work stealing pool, each stripe calling the same OpenCV function on a
+ * submat view, so the output is identical to running the function on the whole frame.
+ */
+public final class ParallelImageOps {
+    /** Stripes smaller than this cost more to schedule than they save. */
+    private static final int MIN_STRIPE_ROWS = 32;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final ThreadLocal<Mat> erodeScratch = ThreadLocal.withInitial(Mat::new);
+
+    private ParallelImageOps() {
+    }
+
+    /**
+     * Work on the rows [rowStart, rowEnd) of a frame.
+     */
+    private interface StripeOp {
+        void apply(int rowStart, int rowEnd);
+    }
+
+    /**
+     * Splits a range of stripes in half until each task holds one, so idle workers steal the rest.
+     */
+    private static final class StripeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final StripeOp op;
+        private final int rows;
+        private final int stripes;
+        private final int lo;
+        private final int hi;
+
+        StripeTask(StripeOp op, int rows, int stripes, int lo, int hi) {
+            this.op = op;
+            this.rows = rows;
+            this.stripes = stripes;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new StripeTask(op, rows, stripes, lo, mid), new StripeTask(op, rows, stripes, mid, hi));
+            } else {
+                op.apply(lo * rows / stripes, (lo + 1) * rows / stripes);
+            }
+        }
+    }
+
+    private static void forEachStripe(int rows, StripeOp op) {
+        // callers already running on a fork join pool (batch mode) parallelise across frames instead
+        int stripes = ForkJoinTask.inForkJoinPool() ? 1 : Math.min(POOL.getParallelism(), rows / MIN_STRIPE_ROWS);
+        if (stripes <= 1) {
+            op.apply(0, rows);
+        } else {
+            POOL.invoke(new StripeTask(op, rows, stripes, 0, stripes));
+        }
+    }
+
+    /**
+     * Striped {@code cvtColor} to a 3 channel output.
+     */
+    public static void cvtColor(Mat input, Mat out, int code) {
+        out.create(input.size(), CvType.CV_8UC3);
+        forEachStripe(input.rows(), (rowStart, rowEnd) -> {
+            Mat inStripe = input.rowRange(rowStart, rowEnd);
+            Mat outStripe = out.rowRange(rowStart, rowEnd);
+            try {
+                Imgproc.cvtColor(inStripe, outStripe, code);
+            } finally {
+                inStripe.release();
+                outStripe.release();
+            }
+        });
+    }
+
+    /**
+     * Striped {@code cvtColor(BGR2HSV)} followed by {@code inRange}.
+     * @param hsv receives the HSV conversion of the input.
+     * @param out receives the binary mask.
+     */
+    public static void hsvThreshold(Mat input, Scalar low, Scalar high, Mat hsv, Mat out) {
+        hsv.create(input.size(), CvType.CV_8UC3);
+        out.create(input.size(), CvType.CV_8UC1);
+        forEachStripe(input.rows(), (rowStart, rowEnd) -> {
+            Mat inStripe = input.rowRange(rowStart, rowEnd);
+            Mat hsvStripe = hsv.rowRange(rowStart, rowEnd);
+            Mat outStripe = out.rowRange(rowStart, rowEnd);
+            try {
+                Imgproc.cvtColor(inStripe, hsvStripe, Imgproc.COLOR_BGR2HSV);
+                Core.inRange(hsvStripe, low, high, outStripe);
+            } finally {
+                inStripe.release();
+                hsvStripe.release();
+                outStripe.release();
+            }
+        });
+    }
+
+    /**
+     * Striped {@code erode}. Each stripe is eroded together with a halo of the neighbouring rows
+     * the kernel reaches into (one row per iteration for the default 3x3 kernel), then only its
+     * own rows are copied to the output.
+     */
+    public static void erode(Mat src, Mat dst, Mat kernel, Point anchor, int iterations, int borderType,
+                             Scalar borderValue) {
+        int radius = kernel.empty() ? 1 : Math.max(kernel.rows(), kernel.cols()) / 2;
+        int halo = radius * iterations;
+        int rows = src.rows();
+        dst.create(src.size(), src.type());
+        forEachStripe(rows, (rowStart, rowEnd) -> {
+            if (rowStart == 0 && rowEnd == rows) {
+                Imgproc.erode(src, dst, kernel, anchor, iterations, borderType, borderValue);
+                return;
+            }
+            int haloStart = Math.max(0, rowStart - halo);
+            int haloEnd = Math.min(rows, rowEnd + halo);
+            Mat srcStripe = src.rowRange(haloStart, haloEnd);
+            Mat eroded = erodeScratch.get();
+            Mat inner = null;
+            Mat dstStripe = dst.rowRange(rowStart, rowEnd);
+            try {
+                // isolated, so the halo edges act as the frame border and never read rows being written
+                Imgproc.erode(srcStripe, eroded, kernel, anchor, iterations, borderType | Core.BORDER_ISOLATED,
+                        borderValue);
+                inner = eroded.rowRange(rowStart - haloStart, rowEnd - haloStart);
+                inner.copyTo(dstStripe);
+            } finally {
+                srcStripe.release();
+                dstStripe.release();
+                if (inner != null) {
+                    inner.release();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,36 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Knobs for the frame-rate and startup machinery.
+ */
+public final class PerformanceConfig {
+    public static final PerformanceConfig DEFAULT = new PerformanceConfig(0.85, 10, 1.0, 50, false, 5805);
+
+    /** Fraction of total CPU the {@link PerformanceGovernor} keeps the coprocessor under. */
+    public final double cpuCeiling;
+    /** Rate a pipeline drops to once its target has been lost for lostSeconds. */
+    public final double searchFps;
+    public final double lostSeconds;
+    /** Synthetic frames per slot each pipeline runs before the first camera frame. */
+    public final int warmUpFrames;
+    /** Whether every pipeline streams its mask to the dashboard. */
+    public final boolean debugStreams;
+    /** Port of the {@link LatencyMonitor}'s HTTP endpoint, 0 for none. */
+    public final int latencyPort;
+
+    PerformanceConfig(double cpuCeiling, double searchFps, double lostSeconds, int warmUpFrames,
+                      boolean debugStreams, int latencyPort) {
+        this.latencyPort = latencyPort;
+        this.cpuCeiling = cpuCeiling;
+        this.searchFps = searchFps;
+        this.lostSeconds = lostSeconds;
+        this.warmUpFrames = warmUpFrames;
+        this.debugStreams = debugStreams;
+    }
+}
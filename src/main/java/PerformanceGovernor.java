@@ -0,0 +1,123 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background service that keeps the coprocessor below a CPU ceiling and stops cameras from
+ * delivering frames nobody processes. Once a second it samples total CPU use from /proc/stat,
+ * backs every pipeline's rate off while above the ceiling (and recovers it while below), and asks
+ * each camera for the highest rate any of its pipelines currently wants.
+ */
+public final class PerformanceGovernor {
+    private final double cpuCeiling;
+    private final Map<VideoSource, List<FrameRateGovernor>> cameras = new LinkedHashMap<>();
+    private final Map<VideoSource, Integer> cameraMaxFps = new HashMap<>();
+    private final Map<VideoSource, Integer> cameraFps = new HashMap<>();
+    private double cpuScale = 1;
+    private long lastIdle;
+    private long lastTotal;
+
+    /**
+     * @param cpuCeiling fraction of total CPU (0 to 1) to stay under.
+     */
+    public PerformanceGovernor(double cpuCeiling) {
+        this.cpuCeiling = cpuCeiling;
+    }
+
+    public synchronized void register(VideoSource camera, FrameRateGovernor governor) {
+        cameras.computeIfAbsent(camera, c -> new ArrayList<>()).add(governor);
+        if (!cameraMaxFps.containsKey(camera)) {
+            int fps = camera.getVideoMode().fps;
+            cameraMaxFps.put(camera, fps > 0 ? fps : 30);
+            cameraFps.put(camera, cameraMaxFps.get(camera));
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                update();
+            }
+        }, "performance-governor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized void update() {
+        double load = sampleCpuLoad();
+        if (load > cpuCeiling) {
+            cpuScale = Math.max(0.25, cpuScale * 0.8);
+        } else if (load >= 0 && load < cpuCeiling * 0.9) {
+            cpuScale = Math.min(1, cpuScale * 1.1);
+        }
+
+        long now = System.nanoTime();
+        for (Map.Entry<VideoSource, List<FrameRateGovernor>> entry : cameras.entrySet()) {
+            VideoSource camera = entry.getKey();
+            double wanted = 0;
+            for (FrameRateGovernor governor : entry.getValue()) {
+                governor.setCpuScale(cpuScale);
+                wanted = Math.max(wanted, governor.targetFps(now));
+            }
+            int max = cameraMaxFps.get(camera);
+            int fps = (int) Math.max(1, Math.min(max, Math.ceil(wanted)));
+            // changing the video mode briefly stalls the camera, so only do it for a real change
+            int current = cameraFps.get(camera);
+            if (fps != current && (fps == max || Math.abs(fps - current) >= 5)) {
+                if (camera.setFPS(fps)) {
+                    cameraFps.put(camera, fps);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The fraction of CPU time spent busy since the last sample, or -1 if unavailable.
+     */
+    private double sampleCpuLoad() {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/stat"))) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("cpu ")) {
+                return -1;
+            }
+            String[] fields = line.trim().split("\\s+");
+            long total = 0;
+            for (int i = 1; i < fields.length; i++) {
+                total += Long.parseLong(fields[i]);
+            }
+            // idle plus iowait
+            long idle = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+            long totalDelta = total - lastTotal;
+            long idleDelta = idle - lastIdle;
+            boolean first = lastTotal == 0;
+            lastTotal = total;
+            lastIdle = idle;
+            if (first || totalDelta <= 0) {
+                return -1;
+            }
+            return 1 - idleDelta / (double) totalDelta;
+        } catch (IOException | RuntimeException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Immutable settings for one vision pipeline: the HSV ranges, erode step and contour filter values
+ * that GRIP generated. A config can be shared freely between threads.
+ */
+public final class PipelineConfig {
+    /**
+     * How targets are pulled out of the binary mask.
+     */
+    public enum Extraction {
+        /** findContours, filterContours and convexHulls, as generated by GRIP. */
+        CONTOURS,
+        /**
+         * connectedComponentsWithStats, filtered on the stats table. Only area (in pixels), width,
+         * height and ratio are checked; perimeter, solidity and vertex limits need contours. So this
+         * is only a drop in replacement for configs that don't rely on them: cargo's minimum of 16
+         * vertices is what rejects round noise a few pixels across, and cargo stays on contours.
+         */
+        COMPONENTS,
+        /**
+         * The threshold step emits a {@link RunLengthMask} instead of a Mat, and erode and blob
+         * labelling run on the runs. Filters like {@link #COMPONENTS}.
+         */
+        RUNS
+    }
+
+    /**
+     * How the erode step runs on a Mat mask.
+     */
+    public enum Morphology {
+        /** Imgproc.erode, row striped across cores by {@link ParallelImageOps}. */
+        OPENCV,
+        /** Packed to one bit per pixel and eroded 64 pixels at a time by {@link BitMask}. */
+        BIT_PACKED
+    }
+
+    /**
+     * Which contours {@link Extraction#CONTOURS} retrieves before filtering.
+     */
+    public enum Retrieval {
+        /** Every contour, including the outline of every hole (RETR_LIST, the GRIP default). */
+        LIST,
+        /** Only outer contours; holes and anything inside them are dropped (RETR_EXTERNAL). */
+        EXTERNAL,
+        /**
+         * Outer contours plus the holes whose bounding box is at least {@link #minChildArea}
+         * (RETR_CCOMP), so noise holes never reach the filter but real openings do.
+         */
+        PRUNED
+    }
+
+    public static final PipelineConfig CARGO = builder("cargo")
+            .hue(0.0, 47.512365169462136)
+            .saturation(146.97851887981145, 255.0)
+            .value(137.69789253343086, 255.0)
+            .erodeIterations(1)
+            .retrieval(Retrieval.EXTERNAL, 0)
+            .minArea(60.0)
+            .minPerimeter(0)
+            .width(0, 1000)
+            .height(0, 1000)
+            .solidity(0, 100)
+            .vertices(16.0, 1000000)
+            .ratio(0, 1000)
+            .build();
+
+    public static final PipelineConfig HATCH = builder("hatch")
+            .hue(1.4793227439856729, 47.09409418824053)
+            .saturation(106.13017870442516, 239.15756860145288)
+            .value(151.95732901040833, 252.52892229400447)
+            .erodeIterations(0)
+            .retrieval(Retrieval.PRUNED, 400)
+            .minArea(25.0)
+            .minPerimeter(80.0)
+            .width(9.0, 1000.0)
+            .height(5.0, 1000.0)
+            .solidity(0, 100)
+            .vertices(0.0, 1000000.0)
+            .ratio(0.0, 1000.0)
+            .build();
+
+    public static final PipelineConfig LED = builder("led")
+            .hue(63.129496402877685, 106.27986348122869)
+            .saturation(36.690647482014384, 124.45392491467575)
+            .value(130.71043165467626, 183.1996587030717)
+            .erodeIterations(1)
+            .retrieval(Retrieval.EXTERNAL, 0)
+            .pairTargets(true, 60.0)
+            .minArea(30.0)
+            .minPerimeter(10.0)
+            .width(10.0, 1000.0)
+            .height(10.0, 1000.0)
+            .solidity(0, 100)
+            .vertices(0.0, 1000000.0)
+            .ratio(0.0, 1000.0)
+            .build();
+
+    public final String name;
+    public final double hueMin;
+    public final double hueMax;
+    public final double saturationMin;
+    public final double saturationMax;
+    public final double valueMin;
+    public final double valueMax;
+    public final int erodeIterations;
+    public final Morphology morphology;
+    public final Extraction extraction;
+    public final Retrieval retrieval;
+    public final double minChildArea;
+    public final double minArea;
+    public final double minPerimeter;
+    public final double minWidth;
+    public final double maxWidth;
+    public final double minHeight;
+    public final double maxHeight;
+    public final double minSolidity;
+    public final double maxSolidity;
+    public final double minVertices;
+    public final double maxVertices;
+    public final double minRatio;
+    public final double maxRatio;
+    public final boolean pairTargets;
+    public final double horizontalFov;
+    /** Whether a {@link LightingAdapter} moves the saturation and value bounds with the scene brightness. */
+    public final boolean adaptive;
+    /** Median V the ranges were tuned at, or 0 to learn it from the first frames. */
+    public final double referenceValue;
+    public final double maxValueShift;
+    public final double maxSaturationShift;
+    /** Weight of each new frame in the moving average of the shifts (0 to 1). */
+    public final double adaptRate;
+    /** Camera settings this pipeline's frames are taken with (see {@link ProfileMultiplexer}). */
+    public final CaptureProfile profile;
+
+    private PipelineConfig(Builder builder) {
+        name = builder.name;
+        hueMin = builder.hueMin;
+        hueMax = builder.hueMax;
+        saturationMin = builder.saturationMin;
+        saturationMax = builder.saturationMax;
+        valueMin = builder.valueMin;
+        valueMax = builder.valueMax;
+        erodeIterations = builder.erodeIterations;
+        morphology = builder.morphology;
+        extraction = builder.extraction;
+        retrieval = builder.retrieval;
+        minChildArea = builder.minChildArea;
+        minArea = builder.minArea;
+        minPerimeter = builder.minPerimeter;
+        minWidth = builder.minWidth;
+        maxWidth = builder.maxWidth;
+        minHeight = builder.minHeight;
+        maxHeight = builder.maxHeight;
+        minSolidity = builder.minSolidity;
+        maxSolidity = builder.maxSolidity;
+        minVertices = builder.minVertices;
+        maxVertices = builder.maxVertices;
+        minRatio = builder.minRatio;
+        maxRatio = builder.maxRatio;
+        pairTargets = builder.pairTargets;
+        horizontalFov = builder.horizontalFov;
+        adaptive = builder.adaptive;
+        referenceValue = builder.referenceValue;
+        maxValueShift = builder.maxValueShift;
+        maxSaturationShift = builder.maxSaturationShift;
+        adaptRate = builder.adaptRate;
+        profile = builder.profile;
+    }
+
+    /**
+     * Look up one of the built in pipelines by name, ignoring case.
+     * @return the config, or null if there is no pipeline with that name.
+     */
+    public static PipelineConfig forName(String name) {
+        for (PipelineConfig config : new PipelineConfig[] {CARGO, HATCH, LED}) {
+            if (config.name.equalsIgnoreCase(name)) {
+                return config;
+            }
+        }
+        return null;
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    /**
+     * Start a builder holding a copy of this config, for deriving a tweaked variant.
+     */
+    public Builder toBuilder() {
+        return new Builder(name)
+                .hue(hueMin, hueMax)
+                .saturation(saturationMin, saturationMax)
+                .value(valueMin, valueMax)
+                .erodeIterations(erodeIterations)
+                .morphology(morphology)
+                .extraction(extraction)
+                .retrieval(retrieval, minChildArea)
+                .minArea(minArea)
+                .minPerimeter(minPerimeter)
+                .width(minWidth, maxWidth)
+                .height(minHeight, maxHeight)
+                .solidity(minSolidity, maxSolidity)
+                .vertices(minVertices, maxVertices)
+                .ratio(minRatio, maxRatio)
+                .pairTargets(pairTargets, horizontalFov)
+                .adaptive(adaptive, referenceValue, maxValueShift, maxSaturationShift, adaptRate)
+                .profile(profile);
+    }
+
+    /**
+     * Builder for {@link PipelineConfig}.
+     */
+    public static final class Builder {
+        private final String name;
+        private double hueMin = 0;
+        private double hueMax = 180;
+        private double saturationMin = 0;
+        private double saturationMax = 255;
+        private double valueMin = 0;
+        private double valueMax = 255;
+        private int erodeIterations = 0;
+        private Morphology morphology = Morphology.OPENCV;
+        private Extraction extraction = Extraction.CONTOURS;
+        private Retrieval retrieval = Retrieval.LIST;
+        private double minChildArea = 0;
+        private double minArea = 0;
+        private double minPerimeter = 0;
+        private double minWidth = 0;
+        private double maxWidth = 1000;
+        private double minHeight = 0;
+        private double maxHeight = 1000;
+        private double minSolidity = 0;
+        private double maxSolidity = 100;
+        private double minVertices = 0;
+        private double maxVertices = 1000000;
+        private double minRatio = 0;
+        private double maxRatio = 1000;
+        private boolean pairTargets = false;
+        private double horizontalFov = 60.0;
+        private boolean adaptive = false;
+        private double referenceValue = 0;
+        private double maxValueShift = 40;
+        private double maxSaturationShift = 30;
+        private double adaptRate = 0.05;
+        private CaptureProfile profile = CaptureProfile.NORMAL;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder hue(double min, double max) {
+            hueMin = min;
+            hueMax = max;
+            return this;
+        }
+
+        public Builder saturation(double min, double max) {
+            saturationMin = min;
+            saturationMax = max;
+            return this;
+        }
+
+        public Builder value(double min, double max) {
+            valueMin = min;
+            valueMax = max;
+            return this;
+        }
+
+        /**
+         * @param iterations how many times to erode the threshold mask, 0 to skip the erode step.
+         */
+        public Builder erodeIterations(int iterations) {
+            erodeIterations = iterations;
+            return this;
+        }
+
+        public Builder morphology(Morphology implementation) {
+            morphology = implementation;
+            return this;
+        }
+
+        public Builder extraction(Extraction mode) {
+            extraction = mode;
+            return this;
+        }
+
+        /**
+         * @param minHoleArea smallest hole bounding box area kept by {@link Retrieval#PRUNED}.
+         */
+        public Builder retrieval(Retrieval mode, double minHoleArea) {
+            retrieval = mode;
+            minChildArea = minHoleArea;
+            return this;
+        }
+
+        public Builder minArea(double area) {
+            minArea = area;
+            return this;
+        }
+
+        public Builder minPerimeter(double perimeter) {
+            minPerimeter = perimeter;
+            return this;
+        }
+
+        public Builder width(double min, double max) {
+            minWidth = min;
+            maxWidth = max;
+            return this;
+        }
+
+        public Builder height(double min, double max) {
+            minHeight = min;
+            maxHeight = max;
+            return this;
+        }
+
+        public Builder solidity(double min, double max) {
+            minSolidity = min;
+            maxSolidity = max;
+            return this;
+        }
+
+        public Builder vertices(double min, double max) {
+            minVertices = min;
+            maxVertices = max;
+            return this;
+        }
+
+        public Builder ratio(double min, double max) {
+            minRatio = min;
+            maxRatio = max;
+            return this;
+        }
+
+        /**
+         * @param pair whether to pair the hulls into 2019 vision targets and solve their pose.
+         * @param fov horizontal field of view of the camera in degrees, for the pose.
+         */
+        public Builder pairTargets(boolean pair, double fov) {
+            pairTargets = pair;
+            horizontalFov = fov;
+            return this;
+        }
+
+        /**
+         * @param adapt whether to follow the scene brightness (see {@link LightingAdapter}).
+         * @param reference median V the ranges were tuned at, or 0 to learn it at startup.
+         * @param maxValue largest shift of the value bounds.
+         * @param maxSaturation largest shift of the saturation bounds.
+         * @param rate weight of each frame in the moving average of the shifts.
+         */
+        public Builder adaptive(boolean adapt, double reference, double maxValue, double maxSaturation,
+                                double rate) {
+            adaptive = adapt;
+            referenceValue = reference;
+            maxValueShift = maxValue;
+            maxSaturationShift = maxSaturation;
+            adaptRate = rate;
+            return this;
+        }
+
+        public Builder profile(CaptureProfile captureProfile) {
+            profile = captureProfile;
+            return this;
+        }
+
+        public PipelineConfig build() {
+            return new PipelineConfig(this);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+import java.util.ArrayList;
+
+/**
+ * Per-invocation scratch state for a pipeline: every Mat and list a frame writes to.
+ * A context must only be used by one thread at a time; it is not tied to any one config.
+ */
+public final class PipelineContext {
+    final Mat hsv = new Mat();
+    final Mat threshold = new Mat();
+    final Mat eroded = new Mat();
+    final Mat kernel = new Mat();
+    final Mat hierarchy = new Mat();
+    /** The threshold bounds, set in place every frame. */
+    final Scalar low = new Scalar(0, 0, 0);
+    final Scalar high = new Scalar(0, 0, 0);
+    final MatOfInt hullIndices = new MatOfInt();
+    final ArrayList<MatOfPoint> contours = new ArrayList<>();
+    final ArrayList<MatOfPoint> filtered = new ArrayList<>();
+    final ArrayList<MatOfPoint> hulls = new ArrayList<>();
+    final Mat labels = new Mat();
+    final Mat stats = new Mat();
+    final Mat centroids = new Mat();
+    int[] statsBuffer = new int[0];
+    int[] hierarchyBuffer = new int[0];
+    int[] contourPoints = new int[0];
+    int[] hullIndexBuffer = new int[0];
+    int[] hullPoints = new int[0];
+    final HullBuffer hullBuffer = new HullBuffer();
+    final RunLengthMask runs = new RunLengthMask();
+    final RunLengthMask erodedRuns = new RunLengthMask();
+    final BlobSummary blobs = new BlobSummary();
+    final BitMask bitMask = new BitMask();
+    final BitMask erodedBits = new BitMask();
+    final TargetAssembler targets = new TargetAssembler();
+    Mat mask = threshold;
+    /** The mask as runs when the config uses {@link PipelineConfig.Extraction#RUNS}, otherwise null. */
+    RunLengthMask maskRuns;
+    /** Shared by the contexts of one runner; null where thresholds don't adapt (batch, training). */
+    LightingAdapter lighting;
+    /** The bounds the last threshold used if they were adapted, otherwise null. */
+    ThresholdBounds appliedThresholds;
+
+    static {
+        NativeLibraries.load();
+    }
+
+    /**
+     * The hulls of the last frame, empty unless the config uses {@link PipelineConfig.Extraction#CONTOURS}.
+     * Only valid until the context processes its next frame.
+     */
+    public HullBuffer hulls() {
+        return hullBuffer;
+    }
+
+    /**
+     * The binary mask the contour step ran on (the erode output if the config erodes).
+     * Only valid until the context processes its next frame.
+     */
+    public Mat mask() {
+        if (maskRuns != null) {
+            maskRuns.toMat(threshold);
+            return threshold;
+        }
+        return mask;
+    }
+
+    /**
+     * Free the native memory held for the contours and hulls of the last frame.
+     */
+    void releaseContours() {
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
+        for (MatOfPoint hull : hulls) {
+            hull.release();
+        }
+        contours.clear();
+        filtered.clear();
+        hulls.clear();
+    }
+
+    /**
+     * Free all native memory held by this context. The context can still be reused afterwards,
+     * its Mats are reallocated by the next frame.
+     */
+    public void release() {
+        releaseContours();
+        hsv.release();
+        threshold.release();
+        eroded.release();
+        hierarchy.release();
+        hullIndices.release();
+        labels.release();
+        stats.release();
+        centroids.release();
+        targets.release();
+    }
+}
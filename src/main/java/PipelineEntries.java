@@ -0,0 +1,96 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+import java.util.function.Consumer;
+
+/**
+ * The NetworkTables entries a pipeline publishes alongside its center pixel, under vision/&lt;pipeline&gt;/.
+ */
+final class PipelineEntries {
+    private final NetworkTableEntry contoursFound;
+    private final NetworkTableEntry contoursKept;
+    private final NetworkTableEntry centerFiltered;
+    private final NetworkTableEntry velocity;
+    private final NetworkTableEntry confidence;
+    private final NetworkTableEntry centerPredicted;
+    private final NetworkTableEntry lookaheadMs;
+    private final NetworkTableEntry enabled;
+    private final NetworkTableEntry firstResultMs;
+    private final NetworkTableEntry valid;
+    private final NetworkTableEntry thresholds;
+    private final NetworkTableEntry copyBytes;
+    private final String pipeline;
+    private final TargetTracker tracker = new TargetTracker(2000, 2, 0.5);
+    private boolean published;
+
+    PipelineEntries(NetworkTable vision, String pipeline) {
+        NetworkTable table = vision.getSubTable(pipeline);
+        contoursFound = table.getEntry("contoursFound");
+        contoursKept = table.getEntry("contoursKept");
+        centerFiltered = table.getEntry("centerFiltered");
+        velocity = table.getEntry("velocity");
+        confidence = table.getEntry("confidence");
+        centerPredicted = table.getEntry("centerPredicted");
+        // written by the robot: how far ahead of the frame it will act on the value
+        lookaheadMs = table.getEntry("lookaheadMs");
+        lookaheadMs.setDefaultDouble(0);
+        enabled = table.getEntry("enabled");
+        firstResultMs = table.getEntry("firstResultMs");
+        valid = table.getEntry("valid");
+        thresholds = table.getEntry("thresholds");
+        copyBytes = table.getEntry("copyBytes");
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Follow the robot's vision/&lt;pipeline&gt;/enabled flag, starting from the given default.
+     */
+    void bindEnabled(Consumer<Boolean> onChange, boolean byDefault) {
+        enabled.setDefaultBoolean(byDefault);
+        enabled.addListener(notification -> onChange.accept(notification.value.getBoolean()),
+                EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+    }
+
+    void publish(PipelineResult result) {
+        if (!published) {
+            published = true;
+            long sinceStart = StartupTimer.sinceJvmStart();
+            firstResultMs.setDouble(sinceStart);
+            System.out.println("Startup: first " + pipeline + " result " + sinceStart + " ms after JVM start");
+        }
+        valid.setBoolean(result.valid);
+        if (result.thresholds != null) {
+            // {hueMin, hueMax, saturationMin, saturationMax, valueMin, valueMax}
+            thresholds.setDoubleArray(result.thresholds.toArray());
+        }
+        contoursFound.setDouble(result.contoursFound);
+        contoursKept.setDouble(result.contoursKept);
+    }
+
+    /**
+     * Publish the pixel bytes copied since the last result.
+     */
+    void publishCopyBytes(long bytes) {
+        copyBytes.setDouble(bytes);
+    }
+
+    /**
+     * Run the tracker on this frame's measurement and publish the filtered, predicted center.
+     */
+    void track(boolean found, double center, long frameTime) {
+        tracker.update(found, center, frameTime);
+        centerFiltered.setDouble(tracker.center());
+        velocity.setDouble(tracker.velocity());
+        confidence.setDouble(tracker.confidence(frameTime));
+        long lookahead = (long) (lookaheadMs.getDouble(0) * 1e6);
+        centerPredicted.setDouble(tracker.predict(System.nanoTime() + lookahead));
+    }
+}
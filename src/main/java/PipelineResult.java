@@ -0,0 +1,110 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a pipeline found in a single frame. Results are immutable and safe to hand to other threads.
+ */
+public final class PipelineResult {
+    public final String pipeline;
+    /** System.nanoTime() when the frame was captured. */
+    public final long frameTime;
+    /** Contours returned by findContours (or blobs labelled, for components). */
+    public final int contoursFound;
+    /** Contours left for the filter step after hierarchy pruning. */
+    public final int contoursKept;
+    /** Number of hulls (or blobs, for {@link PipelineConfig.Extraction#COMPONENTS}) that passed the filter. */
+    public final int hullCount;
+    /** Left most X of all hulls, or -1 if nothing was found. */
+    public final int minX;
+    /** Right most X of all hulls, or -1 if nothing was found. */
+    public final int maxX;
+    /**
+     * Paired vision targets, most central first. Empty unless the config pairs targets. Solved once
+     * per frame here so every consumer of the result shares the same answer.
+     */
+    public final List<VisionTarget> targets;
+    /** False if no frame could be grabbed, so nothing is known about the target. */
+    public final boolean valid;
+    /** The adapted bounds the frame was thresholded with, or null if the config's were used as is. */
+    public final ThresholdBounds thresholds;
+
+    PipelineResult(String pipeline, long frameTime, int contoursFound, int contoursKept, int hullCount,
+                   int minX, int maxX) {
+        this(pipeline, frameTime, contoursFound, contoursKept, hullCount, minX, maxX,
+                Collections.<VisionTarget>emptyList());
+    }
+
+    PipelineResult(String pipeline, long frameTime, int contoursFound, int contoursKept, int hullCount,
+                   int minX, int maxX, List<VisionTarget> targets) {
+        this(pipeline, frameTime, contoursFound, contoursKept, hullCount, minX, maxX, targets, true, null);
+    }
+
+    PipelineResult(String pipeline, long frameTime, int contoursFound, int contoursKept, HullBuffer hulls,
+                   List<VisionTarget> targets) {
+        this(pipeline, frameTime, contoursFound, contoursKept, hulls.size(), hulls.minX(), hulls.maxX(), targets,
+                true, null);
+    }
+
+    private PipelineResult(String pipeline, long frameTime, int contoursFound, int contoursKept, int hullCount,
+                           int minX, int maxX, List<VisionTarget> targets, boolean valid,
+                           ThresholdBounds thresholds) {
+        this.valid = valid;
+        this.thresholds = thresholds;
+        this.pipeline = pipeline;
+        this.targets = targets;
+        this.frameTime = frameTime;
+        this.contoursFound = contoursFound;
+        this.contoursKept = contoursKept;
+        this.hullCount = hullCount;
+        this.minX = minX;
+        this.maxX = maxX;
+    }
+
+    /**
+     * A result for a frame in which nothing was looked for or found.
+     */
+    static PipelineResult empty(String pipeline, long frameTime) {
+        return new PipelineResult(pipeline, frameTime, 0, 0, 0, -1, -1);
+    }
+
+    /**
+     * A result for a frame that could not be grabbed.
+     */
+    static PipelineResult invalid(String pipeline, long frameTime) {
+        return new PipelineResult(pipeline, frameTime, -1, -1, 0, -1, -1,
+                Collections.<VisionTarget>emptyList(), false, null);
+    }
+
+    /**
+     * @return A copy of this result recording the bounds the frame was thresholded with.
+     */
+    PipelineResult withThresholds(ThresholdBounds bounds) {
+        return new PipelineResult(pipeline, frameTime, contoursFound, contoursKept, hullCount, minX, maxX,
+                targets, valid, bounds);
+    }
+
+    public boolean found() {
+        return hullCount > 0;
+    }
+
+    /**
+     * @return The center X pixel between the left and right most hull points, or -1 if nothing was found.
+     */
+    public double centerX() {
+        return found() ? (minX + maxX) / 2.0 : -1;
+    }
+
+    /**
+     * @return The most central paired target, or null if no strips could be paired.
+     */
+    public VisionTarget bestTarget() {
+        return targets.isEmpty() ? null : targets.get(0);
+    }
+}
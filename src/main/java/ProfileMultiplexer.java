@@ -0,0 +1,197 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoCamera;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time-multiplexes one camera between the capture profiles of the pipelines reading from it.
+ * Profiles take turns: a turn switches the camera to a profile, every runner waiting for that
+ * profile grabs {@link #FRAMES_PER_TURN} frames, and the next profile with a waiting runner gets
+ * the camera. Each
+ * frame is therefore only processed by the pipelines that asked for its exposure, instead of
+ * every pipeline running on every frame.
+ *
+ * <p>Frames already exposed when the settings change still arrive after the switch, so each
+ * runner discards {@link #SETTLE_FRAMES} frames at the start of a turn that switched profiles;
+ * several frames per turn spread that cost.
+ * A grab is tagged with the turn it was granted in and only counts if that turn is still
+ * current. A runner that doesn't take its frame (paused, or rate limited) holds up a turn for at
+ * most {@link #TURN_TIMEOUT_NANOS}.
+ *
+ * <p>While a multiplexer is in use it owns the camera's exposure, white balance and brightness.
+ */
+public final class ProfileMultiplexer {
+    static final int SETTLE_FRAMES = 2;
+    static final int FRAMES_PER_TURN = 3;
+    static final long TURN_TIMEOUT_NANOS = 300_000_000L;
+
+    /**
+     * One runner's place at the camera.
+     */
+    static final class Seat {
+        final ProfileMultiplexer multiplexer;
+        CaptureProfile profile;
+        /** Frames to throw away before the one that counts, set when the turn is granted. */
+        int settleFrames;
+        long grantedTurn;
+
+        Seat(ProfileMultiplexer multiplexer) {
+            this.multiplexer = multiplexer;
+        }
+    }
+
+    private final VideoCamera camera;
+    private volatile CameraConfig base;
+    private final List<CaptureProfile> order = new ArrayList<>();
+    private final Map<CaptureProfile, List<Seat>> waiting = new HashMap<>();
+    /** Frames each seat still has to take this turn. */
+    private final Map<Seat, Integer> owed = new HashMap<>();
+    private CaptureProfile current;
+    private CaptureProfile applied;
+    private long turn;
+    private long turnStart;
+
+    /**
+     * @param base the camera's config, for the settings a profile leaves alone.
+     */
+    public ProfileMultiplexer(VideoCamera camera, CameraConfig base) {
+        this.camera = camera;
+        this.base = base;
+    }
+
+    Seat seat() {
+        return new Seat(this);
+    }
+
+    /**
+     * Take new base settings from a reloaded config; they apply at the next profile switch.
+     */
+    public synchronized void setBase(CameraConfig config) {
+        base = config;
+        applied = null;
+    }
+
+    /**
+     * Wait until the camera is in the given profile and it is this seat's turn to grab.
+     */
+    synchronized void awaitTurn(Seat seat, CaptureProfile profile) throws InterruptedException {
+        seat.profile = profile;
+        if (!order.contains(profile)) {
+            order.add(profile);
+        }
+        List<Seat> queue = waiting.computeIfAbsent(profile, p -> new ArrayList<>());
+        queue.add(seat);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (current == null || owed.isEmpty() || now - turnStart > TURN_TIMEOUT_NANOS) {
+                    advance(now);
+                }
+                if (current == profile) {
+                    if (!owed.containsKey(seat)) {
+                        // joining a turn that is already running: the camera has settled
+                        owed.put(seat, FRAMES_PER_TURN);
+                        seat.settleFrames = 0;
+                    }
+                    seat.grantedTurn = turn;
+                    return;
+                }
+                wait(TURN_TIMEOUT_NANOS / 1_000_000L);
+            }
+        } finally {
+            queue.remove(seat);
+        }
+    }
+
+    /**
+     * Called after the grab that followed {@link #awaitTurn}, whether it succeeded or not.
+     * @return false if the turn ended while grabbing, so the frame may be of another profile.
+     */
+    synchronized boolean frameTaken(Seat seat) {
+        seat.settleFrames = 0;
+        boolean stillCurrent = seat.grantedTurn == turn;
+        if (stillCurrent) {
+            Integer remaining = owed.get(seat);
+            if (remaining != null && remaining > 1) {
+                owed.put(seat, remaining - 1);
+            } else {
+                owed.remove(seat);
+                if (owed.isEmpty()) {
+                    advance(System.nanoTime());
+                }
+            }
+        }
+        return stillCurrent;
+    }
+
+    /**
+     * Wake any waiting seats, e.g. after a runner was paused or resumed.
+     */
+    synchronized void wake() {
+        notifyAll();
+    }
+
+    /**
+     * Give the camera to the next profile, round robin, that has runners waiting.
+     */
+    private void advance(long now) {
+        int start = current == null ? 0 : order.indexOf(current) + 1;
+        CaptureProfile next = null;
+        for (int i = 0; i < order.size(); i++) {
+            CaptureProfile candidate = order.get((start + i) % order.size());
+            List<Seat> queue = waiting.get(candidate);
+            if (queue != null && !queue.isEmpty()) {
+                next = candidate;
+                break;
+            }
+        }
+        owed.clear();
+        turn++;
+        turnStart = now;
+        if (next == null) {
+            current = null;
+            notifyAll();
+            return;
+        }
+        current = next;
+        boolean switched = applied != next;
+        if (switched) {
+            apply(next);
+        }
+        for (Seat seat : waiting.get(next)) {
+            owed.put(seat, FRAMES_PER_TURN);
+            seat.settleFrames = switched ? SETTLE_FRAMES : 0;
+        }
+        notifyAll();
+    }
+
+    private void apply(CaptureProfile profile) {
+        CameraConfig config = base;
+        CameraSetting exposure = profile.exposure != null ? profile.exposure : config.exposure;
+        CameraSetting whiteBalance = profile.whiteBalance != null ? profile.whiteBalance : config.whiteBalance;
+        Integer brightness = profile.brightness != null ? profile.brightness : config.brightness;
+        if (exposure == null || exposure.mode == CameraSetting.Mode.AUTO) {
+            camera.setExposureAuto();
+        } else if (exposure.mode == CameraSetting.Mode.MANUAL) {
+            camera.setExposureManual(exposure.value);
+        }
+        if (whiteBalance == null || whiteBalance.mode == CameraSetting.Mode.AUTO) {
+            camera.setWhiteBalanceAuto();
+        } else if (whiteBalance.mode == CameraSetting.Mode.MANUAL) {
+            camera.setWhiteBalanceManual(whiteBalance.value);
+        }
+        if (brightness != null) {
+            camera.setBrightness(brightness);
+        }
+        applied = profile;
+    }
+}
@@ -0,0 +1,271 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.*;
+
+import java.util.Arrays;
+
+/**
+ * A binary mask stored as horizontal runs of set pixels, row by row. Threshold masks are mostly
+ * empty, so the erode and blob steps on runs cost in proportion to the size of the targets
+ * rather than the size of the frame.
+ */
+public final class RunLengthMask {
+    int width;
+    int height;
+    /** Index of the first run of row y; rowStart[height] is the run count. */
+    int[] rowStart = new int[1];
+    /** First set x of each run. */
+    int[] runBegin = new int[64];
+    /** One past the last set x of each run. */
+    int[] runEnd = new int[64];
+    int runCount;
+
+    private byte[] rowBuffer = new byte[0];
+    // blob labelling scratch, indexed by run
+    private int[] parent = new int[0];
+    private int[] blobArea = new int[0];
+    private int[] blobMinX = new int[0];
+    private int[] blobMaxX = new int[0];
+    private int[] blobMinY = new int[0];
+    private int[] blobMaxY = new int[0];
+
+    private void reset(int maskWidth, int maskHeight) {
+        width = maskWidth;
+        height = maskHeight;
+        if (rowStart.length < height + 1) {
+            rowStart = new int[height + 1];
+        }
+        runCount = 0;
+    }
+
+    private void addRun(int begin, int end) {
+        if (runCount == runBegin.length) {
+            runBegin = Arrays.copyOf(runBegin, runCount * 2);
+            runEnd = Arrays.copyOf(runEnd, runCount * 2);
+        }
+        runBegin[runCount] = begin;
+        runEnd[runCount] = end;
+        runCount++;
+    }
+
+    public int runCount() {
+        return runCount;
+    }
+
+    /**
+     * Threshold an HSV frame straight into runs, with the same inclusive, rounded bounds as
+     * {@code Core.inRange}.
+     */
+    public void threshold(Mat hsv, Scalar low, Scalar high) {
+        reset(hsv.cols(), hsv.rows());
+        int hLow = bound(low.val[0]);
+        int sLow = bound(low.val[1]);
+        int vLow = bound(low.val[2]);
+        int hHigh = bound(high.val[0]);
+        int sHigh = bound(high.val[1]);
+        int vHigh = bound(high.val[2]);
+        if (rowBuffer.length < width * 3) {
+            rowBuffer = new byte[width * 3];
+        }
+        byte[] row = rowBuffer;
+        for (int y = 0; y < height; y++) {
+            rowStart[y] = runCount;
+            hsv.get(y, 0, row);
+            int begin = -1;
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                int h = row[i] & 0xFF;
+                int s = row[i + 1] & 0xFF;
+                int v = row[i + 2] & 0xFF;
+                boolean set = h >= hLow && h <= hHigh && s >= sLow && s <= sHigh && v >= vLow && v <= vHigh;
+                if (set && begin < 0) {
+                    begin = x;
+                } else if (!set && begin >= 0) {
+                    addRun(begin, x);
+                    begin = -1;
+                }
+            }
+            if (begin >= 0) {
+                addRun(begin, width);
+            }
+        }
+        rowStart[height] = runCount;
+    }
+
+    private static int bound(double value) {
+        return (int) Math.max(0, Math.min(255, Math.rint(value)));
+    }
+
+    /**
+     * Erode src by a 3x3 square into this mask, treating pixels outside the frame as unset
+     * (what {@code Imgproc.erode} does with GRIP's constant border of -1, saturated to 0).
+     * A pixel survives if its row and the rows above and below are all set from x-1 to x+1,
+     * which is the intersection of the three rows after shrinking every run by one pixel per side.
+     */
+    public void erode(RunLengthMask src) {
+        reset(src.width, src.height);
+        rowStart[0] = 0;
+        for (int y = 0; y < height; y++) {
+            rowStart[y] = runCount;
+            if (y == 0 || y == height - 1) {
+                continue;
+            }
+            // walk the three rows together, each run shrunk to [begin + 1, end - 1)
+            int a = src.rowStart[y - 1];
+            int aEnd = src.rowStart[y];
+            int b = src.rowStart[y];
+            int bEnd = src.rowStart[y + 1];
+            int c = src.rowStart[y + 1];
+            int cEnd = src.rowStart[y + 2];
+            while (a < aEnd && b < bEnd && c < cEnd) {
+                int begin = Math.max(src.runBegin[a], Math.max(src.runBegin[b], src.runBegin[c])) + 1;
+                int endA = src.runEnd[a] - 1;
+                int endB = src.runEnd[b] - 1;
+                int endC = src.runEnd[c] - 1;
+                int end = Math.min(endA, Math.min(endB, endC));
+                if (begin < end) {
+                    addRun(begin, end);
+                }
+                // advance whichever run finishes first
+                if (end == endA) {
+                    a++;
+                } else if (end == endB) {
+                    b++;
+                } else {
+                    c++;
+                }
+            }
+        }
+        rowStart[height] = runCount;
+    }
+
+    /**
+     * Copy the runs of another mask into this one.
+     */
+    public void copyFrom(RunLengthMask src) {
+        reset(src.width, src.height);
+        if (runBegin.length < src.runCount) {
+            runBegin = new int[src.runBegin.length];
+            runEnd = new int[src.runEnd.length];
+        }
+        System.arraycopy(src.rowStart, 0, rowStart, 0, height + 1);
+        System.arraycopy(src.runBegin, 0, runBegin, 0, src.runCount);
+        System.arraycopy(src.runEnd, 0, runEnd, 0, src.runCount);
+        runCount = src.runCount;
+    }
+
+    /**
+     * Label the 8-connected blobs by joining overlapping runs of neighbouring rows, then report
+     * the bounding box and pixel area of each blob to the visitor.
+     * @return the number of blobs.
+     */
+    public int blobs(BlobVisitor visitor) {
+        if (parent.length < runCount) {
+            int size = Math.max(runCount, parent.length * 2);
+            parent = new int[size];
+            blobArea = new int[size];
+            blobMinX = new int[size];
+            blobMaxX = new int[size];
+            blobMinY = new int[size];
+            blobMaxY = new int[size];
+        }
+        for (int i = 0; i < runCount; i++) {
+            parent[i] = i;
+        }
+        for (int y = 1; y < height; y++) {
+            int a = rowStart[y - 1];
+            int aEnd = rowStart[y];
+            int b = rowStart[y];
+            int bEnd = rowStart[y + 1];
+            while (a < aEnd && b < bEnd) {
+                // diagonal neighbours touch, so runs overlap if each starts before the other ends + 1
+                if (runBegin[a] <= runEnd[b] && runBegin[b] <= runEnd[a]) {
+                    union(a, b);
+                }
+                if (runEnd[a] < runEnd[b]) {
+                    a++;
+                } else {
+                    b++;
+                }
+            }
+        }
+
+        int blobCount = 0;
+        for (int y = 0; y < height; y++) {
+            for (int i = rowStart[y]; i < rowStart[y + 1]; i++) {
+                int root = find(i);
+                if (root == i) {
+                    blobArea[i] = 0;
+                    blobMinX[i] = runBegin[i];
+                    blobMaxX[i] = runEnd[i] - 1;
+                    blobMinY[i] = y;
+                    blobCount++;
+                }
+                // roots come first in row order, so every run is visited after its root
+                blobArea[root] += runEnd[i] - runBegin[i];
+                blobMinX[root] = Math.min(blobMinX[root], runBegin[i]);
+                blobMaxX[root] = Math.max(blobMaxX[root], runEnd[i] - 1);
+                blobMaxY[root] = y;
+            }
+        }
+        for (int i = 0; i < runCount; i++) {
+            if (parent[i] == i) {
+                visitor.blob(blobMinX[i], blobMinY[i], blobMaxX[i] - blobMinX[i] + 1,
+                        blobMaxY[i] - blobMinY[i] + 1, blobArea[i]);
+            }
+        }
+        return blobCount;
+    }
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        // the smaller index (the earlier run) stays the root
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+    /**
+     * Render the runs into an 8-bit mask (255 for set pixels), e.g. for a debug stream.
+     */
+    public void toMat(Mat dst) {
+        dst.create(height, width, CvType.CV_8UC1);
+        dst.setTo(new Scalar(0));
+        if (rowBuffer.length < width) {
+            rowBuffer = new byte[width];
+        }
+        byte[] row = rowBuffer;
+        for (int y = 0; y < height; y++) {
+            if (rowStart[y] == rowStart[y + 1]) {
+                continue;
+            }
+            Arrays.fill(row, 0, width, (byte) 0);
+            for (int i = rowStart[y]; i < rowStart[y + 1]; i++) {
+                Arrays.fill(row, runBegin[i], runEnd[i], (byte) 255);
+            }
+            dst.put(y, 0, row, 0, width);
+        }
+    }
+
+    /**
+     * Receives the bounding box and pixel area of each blob found by {@link #blobs}.
+     */
+    public interface BlobVisitor {
+        void blob(int x, int y, int width, int height, int area);
+    }
+}
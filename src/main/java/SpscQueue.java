@@ -0,0 +1,95 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for handing objects from exactly one producer thread to exactly one
+ * consumer thread.
+ */
+final class SpscQueue<T> {
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next index to poll, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next index to offer, written by the producer
+
+    /**
+     * @param capacity maximum number of queued elements, rounded up to a power of two.
+     */
+    SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    boolean offer(T value) {
+        long t = tail.get();
+        if (t - head.get() == buffer.length) {
+            return false;
+        }
+        buffer[(int) t & mask] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        T value = (T) buffer[index];
+        buffer[index] = null;
+        head.lazySet(h + 1);
+        return value;
+    }
+
+    /**
+     * Wait for an element, spinning briefly before parking so a stage that is keeping up
+     * does not pay a wake up delay on every frame.
+     * @return the element, or null if the thread was interrupted.
+     */
+    T take() {
+        int spins = 0;
+        T value;
+        while ((value = poll()) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            if (++spins > 100) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Wait for an element from either of two queues, trying the first one first.
+     * @return the element, or null if the thread was interrupted.
+     */
+    static <T> T take(SpscQueue<T> first, SpscQueue<T> second) {
+        int spins = 0;
+        T value;
+        while ((value = first.poll()) == null && (value = second.poll()) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            if (++spins > 100) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        return value;
+    }
+}
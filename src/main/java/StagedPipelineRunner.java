@@ -0,0 +1,474 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.cameraserver.CameraServer;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs one pipeline as four stages on their own threads: capture, threshold (HSV + erode),
+ * contours (find, filter, hulls) and publish. While frame N is in the contour stage frame N+1
+ * can be thresholded and frame N-1 published, so a multi-core coprocessor keeps every core busy.
+ *
+ * <p>Stages are connected by {@link SpscQueue}s holding {@link FrameSlot}s. There is one slot per
+ * stage, and the capture stage only grabs once a slot has come back from the publish stage, so a
+ * frame is always fresh when grabbed and waits for at most one frame ahead of it in any stage.
+ *
+ * <p>A runner can be disabled at runtime. The capture stage then waits for every slot to come
+ * back, releases their native memory, turns its sink off and parks until enabled again.
+ */
+public final class StagedPipelineRunner {
+    private static final int STAGES = 4;
+    static final double GRAB_TIMEOUT_SECONDS = 0.5;
+    private static final long GRAB_RETRY_NANOS = 100_000_000L;
+
+    private final String name;
+    private final VideoSource camera;
+    volatile PipelineConfig config;
+    private final Consumer<PipelineResult> listener;
+    private final SpscQueue<FrameSlot> free = new SpscQueue<>(STAGES);
+    private final SpscQueue<FrameSlot> captured = new SpscQueue<>(STAGES);
+    private final SpscQueue<FrameSlot> thresholded = new SpscQueue<>(STAGES);
+    private final SpscQueue<FrameSlot> found = new SpscQueue<>(STAGES);
+    /** Slots whose last owner was the debug stream rather than the publish stage. */
+    private final SpscQueue<FrameSlot> returned = new SpscQueue<>(STAGES);
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<FrameSlot> slots = new ArrayList<>(STAGES);
+    /** Used only by the threshold stage (and warm-up, before it starts). */
+    private final LightingAdapter lighting = new LightingAdapter();
+    private FrameRateGovernor governor;
+    private CameraHealth health;
+    private ProfileMultiplexer.Seat seat;
+    private boolean debugStream;
+    private LatencyMonitor latency;
+    private BiConsumer<PipelineResult, HullBuffer> hullListener;
+    private LongConsumer copyBytesListener;
+    /** Pixel bytes copied since the last result was published, by the capture stage and the debug stream. */
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private volatile boolean enabled = true;
+    /** Set while the capture stage waits for its multiplexer turn rather than for the camera. */
+    private volatile boolean awaitingTurn;
+    private volatile Thread captureThread;
+
+    public StagedPipelineRunner(VideoSource camera, PipelineConfig config, Consumer<PipelineResult> listener) {
+        this.name = config.name;
+        this.camera = camera;
+        this.config = config;
+        this.listener = listener;
+    }
+
+    /**
+     * Limit how often frames are grabbed. Must be called before {@link #start()}.
+     */
+    public void setGovernor(FrameRateGovernor frameRateGovernor) {
+        governor = frameRateGovernor;
+    }
+
+    /**
+     * Stream each frame's mask to the dashboard as "&lt;pipeline&gt;-mask". Must be called before
+     * {@link #start()}.
+     */
+    public void enableDebugStream() {
+        debugStream = true;
+    }
+
+    /**
+     * Also hand each result's hulls to a listener, on the publish thread after the result listener.
+     * The buffer belongs to the frame's slot: it must not be kept or read after the call returns.
+     * Must be called before {@link #start()}.
+     */
+    public void setHullListener(BiConsumer<PipelineResult, HullBuffer> listener) {
+        hullListener = listener;
+    }
+
+    /**
+     * Also report, after each result, the pixel bytes copied since the one before: every frame cscore
+     * copies into a slot, including the settle frames a multiplexer turn throws away and frames
+     * grabbed after the turn ran out, plus every mask the debug stream hands to its source. Must
+     * be called before {@link #start()}.
+     */
+    public void setCopyBytesListener(LongConsumer listener) {
+        copyBytesListener = listener;
+    }
+
+    /**
+     * Record the time of every stage, and of each frame from grab to published result, as
+     * "&lt;pipeline&gt;/&lt;stage&gt;" and "&lt;pipeline&gt;/frame". Must be called before {@link #start()}.
+     */
+    public void setLatencyMonitor(LatencyMonitor monitor) {
+        latency = monitor;
+    }
+
+    /**
+     * Take turns at the camera with the other runners of a multiplexer, grabbing only frames taken
+     * with this pipeline's capture profile. Must be called before {@link #start()}.
+     */
+    public void setMultiplexer(ProfileMultiplexer multiplexer) {
+        seat = multiplexer.seat();
+    }
+
+    /**
+     * Swap in a new config. Read once per frame by the capture stage, so every stage of a frame
+     * sees the same config and the frame path never waits on a reload.
+     */
+    public void setConfig(PipelineConfig pipelineConfig) {
+        config = pipelineConfig;
+    }
+
+    /**
+     * Report grabs to a camera's health monitor. Must be called before {@link #start()}.
+     */
+    public void setHealth(CameraHealth cameraHealth) {
+        health = cameraHealth;
+    }
+
+    /**
+     * Pause or resume this pipeline. May be called before or after {@link #start()}; resuming takes
+     * effect on the next camera frame.
+     */
+    public void setEnabled(boolean enable) {
+        enabled = enable;
+        if (governor != null) {
+            governor.setRequested(enable);
+        }
+        Thread thread = captureThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        if (seat != null) {
+            seat.multiplexer.wake();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * How often this runner currently expects a frame from the camera: the governed interval
+     * between grabs, or the camera's own frame interval without a governor. 0 while the runner is
+     * not asking for frames, because it is paused or waiting for its multiplexer turn.
+     */
+    long grabIntervalNanos(long now) {
+        if (!enabled || awaitingTurn) {
+            return 0;
+        }
+        double fps = governor != null ? governor.targetFps(now) : Double.POSITIVE_INFINITY;
+        if (fps <= 0) {
+            // not requested and not meant to idle: about to pause
+            return 0;
+        }
+        if (Double.isInfinite(fps)) {
+            int cameraFps = camera.getVideoMode().fps;
+            fps = cameraFps > 0 ? cameraFps : 30;
+        }
+        return (long) (1e9 / fps);
+    }
+
+    private void allocateSlots() {
+        if (slots.isEmpty()) {
+            VideoMode mode = camera.getVideoMode();
+            for (int i = 0; i < STAGES; i++) {
+                FrameSlot slot = new FrameSlot(mode.width, mode.height);
+                slot.context.lighting = lighting;
+                slots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Run every slot through the pipeline on synthetic frames, so the first camera frames find the
+     * code compiled and the slots' Mats allocated at their final size. Must be called before
+     * {@link #start()}.
+     * @param frames the number of frames to run through each slot.
+     */
+    public void warmUp(int frames) {
+        allocateSlots();
+        long start = System.nanoTime();
+        Random random = new Random(config.name.hashCode());
+        for (int i = 0; i < frames; i++) {
+            for (FrameSlot slot : slots) {
+                if (slot.frame.empty()) {
+                    return;
+                }
+                drawSyntheticFrame(config, slot.frame, random);
+                GripPipeline.process(config, slot.context, slot.frame, 0);
+            }
+        }
+        // the synthetic frames say nothing about the venue's lighting
+        lighting.reset();
+        System.out.printf("%s: warmed up %d frames in %.0f ms%n", name, frames * STAGES,
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Paint a noisy frame with a few blobs in the middle of the config's HSV range, so warm-up
+     * exercises the filter, hull and pairing code as well as the threshold. The noise stays below
+     * a value of 128, under every built-in pipeline's range: full range noise passes hatch's
+     * threshold as some 20000 specks per frame, which made its warm-up take seconds.
+     */
+    static void drawSyntheticFrame(PipelineConfig config, Mat frame, Random random) {
+        Core.randu(frame, 0, 128);
+        Scalar fill = fillColor(config);
+        for (int i = 0; i < 4; i++) {
+            int size = 10 + random.nextInt(Math.max(1, frame.rows() / 4));
+            Point center = new Point(random.nextInt(frame.cols()), random.nextInt(frame.rows()));
+            if (i % 2 == 0) {
+                Imgproc.circle(frame, center, size / 2, fill, -1);
+            } else {
+                RotatedRect strip = new RotatedRect(center, new Size(size / 3.0, size), i == 1 ? 14.5 : -14.5);
+                Point[] corners = new Point[4];
+                strip.points(corners);
+                Imgproc.fillConvexPoly(frame, new MatOfPoint(corners), fill);
+            }
+        }
+    }
+
+    /**
+     * @return The BGR color in the middle of the config's HSV range.
+     */
+    static Scalar fillColor(PipelineConfig config) {
+        Mat color = new Mat(1, 1, CvType.CV_8UC3, new Scalar(
+                (config.hueMin + config.hueMax) / 2,
+                (config.saturationMin + config.saturationMax) / 2,
+                (config.valueMin + config.valueMax) / 2));
+        Imgproc.cvtColor(color, color, Imgproc.COLOR_HSV2BGR);
+        double[] bgr = color.get(0, 0);
+        color.release();
+        return new Scalar(bgr);
+    }
+
+    /**
+     * Add the pixel bytes of a Mat that was just copied in or out to a counter.
+     */
+    static void countCopy(AtomicLong counter, Mat copied) {
+        counter.addAndGet(copied.total() * copied.elemSize());
+    }
+
+    /**
+     * Allocate the frame slots (unless warmed up) and start the stage threads.
+     */
+    public void start() {
+        allocateSlots();
+        for (FrameSlot slot : slots) {
+            free.offer(slot);
+        }
+        VideoMode mode = camera.getVideoMode();
+
+        CvSink sink = CameraServer.getInstance().getVideo(camera);
+        // capture is the only consumer of the free queue, so slots it is holding on to (across a
+        // failed grab, or while paused) are kept here rather than handed back to the queue
+        ArrayDeque<FrameSlot> reserve = new ArrayDeque<>(STAGES);
+        // each stage records to its own histogram, the histograms' one writer each
+        LatencyHistogram grabLatency = latency != null ? latency.histogram(name + "/grab") : null;
+        LatencyHistogram thresholdLatency = latency != null ? latency.histogram(name + "/threshold") : null;
+        LatencyHistogram contoursLatency = latency != null ? latency.histogram(name + "/contours") : null;
+        LatencyHistogram publishLatency = latency != null ? latency.histogram(name + "/publish") : null;
+        LatencyHistogram frameLatency = latency != null ? latency.histogram(name + "/frame") : null;
+        startStage("capture", () -> {
+            captureThread = Thread.currentThread();
+            if (!enabled) {
+                return pause(sink, reserve);
+            }
+            FrameSlot slot = !reserve.isEmpty() ? reserve.peek() : SpscQueue.take(free, returned);
+            if (slot == null) {
+                return false;
+            }
+            if (reserve.isEmpty()) {
+                reserve.push(slot);
+            }
+            // after a pause, reallocate the frame up front rather than in the first grab
+            slot.allocate();
+            if (governor != null && !governor.awaitFrame()) {
+                return false;
+            }
+            if (!enabled) {
+                return true;
+            }
+            PipelineConfig frameConfig = config;
+            if (seat != null) {
+                awaitingTurn = true;
+                try {
+                    seat.multiplexer.awaitTurn(seat, frameConfig.profile);
+                } catch (InterruptedException ex) {
+                    return false;
+                } finally {
+                    awaitingTurn = false;
+                }
+                // frames exposed before the profile switch are still on their way
+                for (int i = 0; i < seat.settleFrames; i++) {
+                    if (sink.grabFrame(slot.frame, GRAB_TIMEOUT_SECONDS) != 0) {
+                        countCopy(copiedBytes, slot.frame);
+                    }
+                }
+            }
+            long grabStart = System.nanoTime();
+            long frameTime = sink.grabFrame(slot.frame, GRAB_TIMEOUT_SECONDS);
+            if (grabLatency != null) {
+                grabLatency.record(System.nanoTime() - grabStart);
+            }
+            if (frameTime != 0) {
+                countCopy(copiedBytes, slot.frame);
+            }
+            if (seat != null && !seat.multiplexer.frameTaken(seat) && frameTime != 0) {
+                // the turn timed out while grabbing: the frame may be another profile's, try again
+                return true;
+            }
+            reserve.pop();
+            slot.own();
+            slot.config = frameConfig;
+            slot.frameTime = System.nanoTime();
+            slot.grabbed = frameTime != 0;
+            if (slot.grabbed) {
+                if (health != null) {
+                    health.frameGrabbed(slot.frameTime);
+                }
+            } else {
+                // pass an invalid result along rather than leave the last good one standing
+                System.err.println(name + ": could not grab frame: " + sink.getError());
+                if (health != null) {
+                    health.grabFailed();
+                }
+                // a gone camera can fail instantly; don't spin on it
+                LockSupport.parkNanos(GRAB_RETRY_NANOS);
+            }
+            captured.offer(slot);
+            return true;
+        });
+        startStage("threshold", () -> {
+            FrameSlot slot = captured.take();
+            if (slot == null) {
+                return false;
+            }
+            if (slot.grabbed) {
+                long start = System.nanoTime();
+                GripPipeline.threshold(slot.config, slot.context, slot.frame);
+                if (thresholdLatency != null) {
+                    thresholdLatency.record(System.nanoTime() - start);
+                }
+            }
+            thresholded.offer(slot);
+            return true;
+        });
+        startStage("contours", () -> {
+            FrameSlot slot = thresholded.take();
+            if (slot == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            if (!slot.grabbed) {
+                // nothing was found, so there must be no hulls left over from the slot's last frame
+                slot.context.hullBuffer.clear();
+            }
+            slot.result = slot.grabbed
+                    ? GripPipeline.contours(slot.config, slot.context, slot.frameTime)
+                    : PipelineResult.invalid(name, slot.frameTime);
+            if (contoursLatency != null && slot.grabbed) {
+                contoursLatency.record(System.nanoTime() - start);
+            }
+            found.offer(slot);
+            return true;
+        });
+        DebugStream stream = debugStream
+                ? new DebugStream(name + "-mask", mode.width, mode.height, returned, copiedBytes) : null;
+        startStage("publish", () -> {
+            FrameSlot slot = found.take();
+            if (slot == null) {
+                return false;
+            }
+            if (governor != null) {
+                governor.onResult(slot.result);
+            }
+            long start = System.nanoTime();
+            listener.accept(slot.result);
+            if (hullListener != null) {
+                hullListener.accept(slot.result, slot.context.hulls());
+            }
+            if (copyBytesListener != null) {
+                copyBytesListener.accept(copiedBytes.getAndSet(0));
+            }
+            if (latency != null && slot.grabbed) {
+                long end = System.nanoTime();
+                publishLatency.record(end - start);
+                latency.frame(frameLatency, end - slot.frameTime);
+            }
+            slot.result = null;
+            if (stream != null) {
+                FrameSlot dropped = stream.offer(slot);
+                if (dropped != null && dropped.disown()) {
+                    free.offer(dropped);
+                }
+            }
+            if (slot.disown()) {
+                free.offer(slot);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Called on the capture thread while disabled: collect every slot as the later stages finish
+     * with it, release the native memory, and park until enabled. The released Mats are
+     * reallocated by the first grab and threshold after resuming.
+     * @return false if the thread was interrupted.
+     */
+    private boolean pause(CvSink sink, ArrayDeque<FrameSlot> reserve) {
+        while (reserve.size() < STAGES) {
+            FrameSlot slot = SpscQueue.take(free, returned);
+            if (slot == null) {
+                return false;
+            }
+            reserve.push(slot);
+        }
+        for (FrameSlot slot : reserve) {
+            slot.release();
+        }
+        sink.setEnabled(false);
+        System.out.println(name + ": paused");
+        while (!enabled) {
+            LockSupport.park(this);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        sink.setEnabled(true);
+        if (health != null) {
+            // the camera hasn't been asked for frames while paused; don't count that as stale
+            health.frameGrabbed(System.nanoTime());
+        }
+        System.out.println(name + ": resumed");
+        return true;
+    }
+
+    /**
+     * Run a stage body on its own daemon thread until it returns false or the thread is interrupted.
+     */
+    private void startStage(String stage, BooleanSupplier body) {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted() && body.getAsBoolean()) {
+                // keep running
+            }
+        }, name + "-" + stage);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+}
@@ -0,0 +1,27 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Tracks how long after JVM start each pipeline publishes its first result.
+ */
+final class StartupTimer {
+    private StartupTimer() {
+    }
+
+    /**
+     * @return Milliseconds since the JVM started.
+     */
+    static long sinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    static void log(String step) {
+        System.out.println("Startup: " + step + " at " + sinceJvmStart() + " ms");
+    }
+}
@@ -0,0 +1,156 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns the LED pipeline's hulls into {@link VisionTarget}s: fits a rotated rectangle to each
+ * hull, classifies it as a left ("/") or right ("\") strip by its tilt, pairs neighbouring
+ * left-right strips after sorting on X, and solves the pose of each pair. One assembler belongs
+ * to each {@link PipelineContext} and reuses its scratch buffers from frame to frame.
+ */
+final class TargetAssembler {
+    /**
+     * Outer corners of the 2019 target in inches, y down to match image coordinates: left strip
+     * top and bottom, then right strip top and bottom.
+     */
+    private static final Point3[] MODEL = {
+        new Point3(-5.936, -0.5, 0), new Point3(-5.377, 5.325, 0),
+        new Point3(5.936, -0.5, 0), new Point3(5.377, 5.325, 0)
+    };
+
+    private final MatOfPoint2f hull2f = new MatOfPoint2f();
+    private final MatOfPoint3f model = new MatOfPoint3f(MODEL);
+    private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+    private final Mat cameraMatrix = Mat.zeros(3, 3, CvType.CV_64F);
+    private final MatOfDouble distortion = new MatOfDouble();
+    private final Mat rvec = new Mat();
+    private final Mat tvec = new Mat();
+    private final Mat rotation = new Mat();
+    private final Point[] corners = new Point[4];
+    private final Point[] pairPoints = new Point[4];
+    private final double[] vector = new double[3];
+    private final double[] rotationValues = new double[9];
+    // per strip, indexed by hull
+    private double[] stripX = new double[16];
+    private boolean[] stripLeft = new boolean[16];
+    private Point[] stripTop = new Point[16];
+    private Point[] stripBottom = new Point[16];
+    private long[] order = new long[16];
+
+    List<VisionTarget> assemble(List<MatOfPoint> hulls, int width, int height, double horizontalFov) {
+        int count = hulls.size();
+        if (count < 2) {
+            return Collections.emptyList();
+        }
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            hulls.get(i).convertTo(hull2f, CvType.CV_32FC2);
+            RotatedRect rect = Imgproc.minAreaRect(hull2f);
+            rect.points(corners);
+            classify(i);
+            // sort key: X in 1/16 pixels in the high bits, hull index in the low bits
+            order[i] = (Math.round(rect.center.x * 16) << 32) | i;
+            stripX[i] = rect.center.x;
+        }
+        Arrays.sort(order, 0, count);
+
+        List<VisionTarget> targets = new ArrayList<>();
+        for (int n = 0; n + 1 < count; n++) {
+            int left = (int) order[n];
+            int right = (int) order[n + 1];
+            if (stripLeft[left] && !stripLeft[right]) {
+                targets.add(solve(left, right, width, height, horizontalFov));
+                n++;
+            }
+        }
+        // most central target first, as that is the one the driver is lining up on
+        double middle = width / 2.0;
+        targets.sort((a, b) -> Double.compare(Math.abs(a.centerX - middle), Math.abs(b.centerX - middle)));
+        return Collections.unmodifiableList(targets);
+    }
+
+    private void ensureCapacity(int count) {
+        if (stripX.length < count) {
+            int size = Math.max(count, stripX.length * 2);
+            stripX = new double[size];
+            stripLeft = new boolean[size];
+            stripTop = Arrays.copyOf(stripTop, size);
+            stripBottom = Arrays.copyOf(stripBottom, size);
+            order = new long[size];
+        }
+    }
+
+    /**
+     * Find the top and bottom corners of strip i and whether it leans right at the top ("/", a left strip).
+     */
+    private void classify(int i) {
+        Point top = corners[0];
+        Point bottom = corners[0];
+        for (Point corner : corners) {
+            if (corner.y < top.y) {
+                top = corner;
+            }
+            if (corner.y > bottom.y) {
+                bottom = corner;
+            }
+        }
+        stripTop[i] = top;
+        stripBottom[i] = bottom;
+
+        // direction of the long edge, pointed up the image
+        double edge1X = corners[1].x - corners[0].x;
+        double edge1Y = corners[1].y - corners[0].y;
+        double edge2X = corners[2].x - corners[1].x;
+        double edge2Y = corners[2].y - corners[1].y;
+        boolean firstLonger = edge1X * edge1X + edge1Y * edge1Y > edge2X * edge2X + edge2Y * edge2Y;
+        double dx = firstLonger ? edge1X : edge2X;
+        double dy = firstLonger ? edge1Y : edge2Y;
+        if (dy > 0) {
+            dx = -dx;
+        }
+        stripLeft[i] = dx > 0;
+    }
+
+    private VisionTarget solve(int left, int right, int width, int height, double horizontalFov) {
+        double centerX = (stripX[left] + stripX[right]) / 2.0;
+        double centerY = (stripTop[left].y + stripBottom[left].y + stripTop[right].y + stripBottom[right].y) / 4.0;
+
+        double focal = width / 2.0 / Math.tan(Math.toRadians(horizontalFov) / 2.0);
+        cameraMatrix.put(0, 0, focal, 0, width / 2.0, 0, focal, height / 2.0, 0, 0, 1);
+        pairPoints[0] = stripTop[left];
+        pairPoints[1] = stripBottom[left];
+        pairPoints[2] = stripTop[right];
+        pairPoints[3] = stripBottom[right];
+        imagePoints.fromArray(pairPoints);
+        if (!Calib3d.solvePnP(model, imagePoints, cameraMatrix, distortion, rvec, tvec)) {
+            return new VisionTarget(centerX, centerY, Double.NaN, Double.NaN, Double.NaN, false);
+        }
+
+        tvec.get(0, 0, vector);
+        double distance = vector[2];
+        double angle = Math.toDegrees(Math.atan2(vector[0], vector[2]));
+        // the target's normal in camera coordinates is the third column of the rotation
+        Calib3d.Rodrigues(rvec, rotation);
+        rotation.get(0, 0, rotationValues);
+        double skew = Math.toDegrees(Math.atan2(rotationValues[2], rotationValues[8]));
+        return new VisionTarget(centerX, centerY, distance, angle, skew, true);
+    }
+
+    void release() {
+        for (Mat mat : new Mat[] {hull2f, model, imagePoints, cameraMatrix, distortion, rvec, tvec, rotation}) {
+            mat.release();
+        }
+    }
+}
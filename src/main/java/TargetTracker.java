@@ -0,0 +1,134 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * Smooths a target's center pixel with a constant velocity Kalman filter, so a single missed
+ * frame no longer drops the published value to -1. After a miss the last estimate is held (and
+ * extrapolated) for a hold window with falling confidence. Everything is primitive state, so an
+ * update is O(1) and allocation free.
+ */
+public final class TargetTracker {
+    /** Variance of the unmodelled acceleration, in (pixels/s^2)^2. */
+    private final double accelerationVariance;
+    /** Variance of a measured center, in pixels^2. */
+    private final double measurementVariance;
+    private final long holdNanos;
+
+    private boolean tracking;
+    private double position;
+    private double velocity;
+    private double p00;
+    private double p01;
+    private double p11;
+    private long stateTime;
+    private long lastMeasurement;
+
+    public TargetTracker(double accelerationStdDev, double measurementStdDev, double holdSeconds) {
+        accelerationVariance = accelerationStdDev * accelerationStdDev;
+        measurementVariance = measurementStdDev * measurementStdDev;
+        holdNanos = (long) (holdSeconds * 1e9);
+    }
+
+    /**
+     * Feed the result of one frame.
+     * @param found whether the target was seen in the frame.
+     * @param center the measured center pixel, ignored if not found.
+     * @param time System.nanoTime() at which the frame was captured.
+     */
+    public void update(boolean found, double center, long time) {
+        if (!found) {
+            if (tracking && time - lastMeasurement > holdNanos) {
+                tracking = false;
+            }
+            return;
+        }
+        if (!tracking) {
+            reset(center, time);
+            return;
+        }
+
+        advance(time);
+        double innovation = center - position;
+        double innovationVariance = p00 + measurementVariance;
+        // a jump far outside the prediction is a different target, not motion
+        if (innovation * innovation > 25 * innovationVariance) {
+            reset(center, time);
+            return;
+        }
+        double gainPosition = p00 / innovationVariance;
+        double gainVelocity = p01 / innovationVariance;
+        position += gainPosition * innovation;
+        velocity += gainVelocity * innovation;
+        p11 -= gainVelocity * p01;
+        p01 *= 1 - gainPosition;
+        p00 *= 1 - gainPosition;
+        lastMeasurement = time;
+    }
+
+    private void reset(double center, long time) {
+        tracking = true;
+        position = center;
+        velocity = 0;
+        p00 = measurementVariance;
+        p01 = 0;
+        p11 = 250000; // (500 pixels/s)^2, anything from still to crossing the frame in a second
+        stateTime = time;
+        lastMeasurement = time;
+    }
+
+    /**
+     * Move the state forward to the given time.
+     */
+    private void advance(long time) {
+        double dt = (time - stateTime) / 1e9;
+        if (dt <= 0) {
+            return;
+        }
+        double dt2 = dt * dt;
+        position += velocity * dt;
+        p00 += 2 * dt * p01 + dt2 * p11 + accelerationVariance * dt2 * dt2 / 4;
+        p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+        p11 += accelerationVariance * dt2;
+        stateTime = time;
+    }
+
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * @return The filtered center pixel as of the last frame, or -1 if not tracking.
+     */
+    public double center() {
+        return tracking ? position : -1;
+    }
+
+    /**
+     * @return The center's velocity in pixels per second.
+     */
+    public double velocity() {
+        return tracking ? velocity : 0;
+    }
+
+    /**
+     * @return 1 just after a measurement, falling linearly to 0 at the end of the hold window.
+     */
+    public double confidence(long time) {
+        if (!tracking) {
+            return 0;
+        }
+        return Math.max(0, 1 - (time - lastMeasurement) / (double) holdNanos);
+    }
+
+    /**
+     * @return The center extrapolated to the given System.nanoTime(), or -1 if not tracking.
+     */
+    public double predict(long time) {
+        return tracking ? position + velocity * (time - stateTime) / 1e9 : -1;
+    }
+}
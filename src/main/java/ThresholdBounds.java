@@ -0,0 +1,42 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * HSV threshold bounds actually applied to a frame.
+ */
+public final class ThresholdBounds {
+    public final double hueMin;
+    public final double hueMax;
+    public final double saturationMin;
+    public final double saturationMax;
+    public final double valueMin;
+    public final double valueMax;
+
+    ThresholdBounds(double hueMin, double hueMax, double saturationMin, double saturationMax,
+                    double valueMin, double valueMax) {
+        this.hueMin = hueMin;
+        this.hueMax = hueMax;
+        this.saturationMin = saturationMin;
+        this.saturationMax = saturationMax;
+        this.valueMin = valueMin;
+        this.valueMax = valueMax;
+    }
+
+    boolean sameAs(double otherHueMin, double otherHueMax, double otherSaturationMin,
+                  double otherSaturationMax, double otherValueMin, double otherValueMax) {
+        return hueMin == otherHueMin && hueMax == otherHueMax && saturationMin == otherSaturationMin
+                && saturationMax == otherSaturationMax && valueMin == otherValueMin && valueMax == otherValueMax;
+    }
+
+    /**
+     * @return {hueMin, hueMax, saturationMin, saturationMax, valueMin, valueMax}
+     */
+    double[] toArray() {
+        return new double[] {hueMin, hueMax, saturationMin, saturationMax, valueMin, valueMax};
+    }
+}
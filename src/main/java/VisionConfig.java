@@ -0,0 +1,38 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything in the config file, validated. Immutable, so a reload swaps in a whole new instance.
+ */
+public final class VisionConfig {
+    public final int team;
+    public final boolean server;
+    public final List<CameraConfig> cameras;
+    /** The built in pipelines with any overrides from the file applied, by name. */
+    public final Map<String, PipelineConfig> pipelines;
+    public final PerformanceConfig performance;
+
+    VisionConfig(int team, boolean server, List<CameraConfig> cameras, Map<String, PipelineConfig> pipelines,
+                 PerformanceConfig performance) {
+        this.team = team;
+        this.server = server;
+        this.cameras = Collections.unmodifiableList(cameras);
+        this.pipelines = Collections.unmodifiableMap(pipelines);
+        this.performance = performance;
+    }
+
+    /**
+     * @return The configured version of a built in pipeline.
+     */
+    public PipelineConfig pipeline(PipelineConfig builtIn) {
+        return pipelines.get(builtIn.name);
+    }
+}
@@ -0,0 +1,34 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+
+/**
+ * A 2019 vision target: a left and a right tape strip paired up, with the pose solved against
+ * the target model. Immutable.
+ */
+public final class VisionTarget {
+    /** Pixel midpoint between the two strips. */
+    public final double centerX;
+    public final double centerY;
+    /** Forward distance from the camera to the target, in inches. */
+    public final double distance;
+    /** Horizontal angle from the camera axis to the target, in degrees, positive to the right. */
+    public final double angle;
+    /** Rotation of the target about the vertical axis relative to the camera, in degrees. */
+    public final double skew;
+    /** Whether solvePnP converged; distance, angle and skew are NaN if not. */
+    public final boolean poseValid;
+
+    VisionTarget(double centerX, double centerY, double distance, double angle, double skew, boolean poseValid) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.distance = distance;
+        this.angle = angle;
+        this.skew = skew;
+        this.poseValid = poseValid;
+    }
+}
@@ -0,0 +1,93 @@
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+/**
+ * Runs each built-in pipeline over a few thousand {@link SceneGenerator} frames (balls, a tape pair
+ * and noise blobs in the pipeline's color) and fails if it allocates more Java heap per frame than
+ * the budget. Garbage per frame turns into GC pauses on the Pi, so this catches a change to a
+ * pipeline that quietly starts allocating again.
+ *
+ * <p>The budget is bytes per frame, set with -PallocationBudget=... (default {@link #DEFAULT_BUDGET}).
+ * The test prints what each pipeline actually allocated, so the budget can be tightened as the
+ * pipelines get leaner. It is skipped where the OpenCV natives or per-thread allocation counters
+ * are not available.
+ */
+public class AllocationBudgetTest {
+    /**
+     * Over twice the worst measured across all threads (JDK 17, x86-64): on one core, where every
+     * step runs unstriped, cargo 5965 bytes per frame, led 7096, hatch 8200; with four cores
+     * (-XX:ActiveProcessorCount=4) the stripe views and tasks bring that to cargo 8034, led 9081,
+     * hatch 9111. Nearly all of the rest is the Mats findContours returns, one pair per contour.
+     */
+    private static final long DEFAULT_BUDGET = 16 * 1024;
+    private static final int WARM_UP_FRAMES = 500;
+    private static final int MEASURED_FRAMES = 5000;
+    private static final int DISTINCT_FRAMES = 16;
+
+    @BeforeClass
+    public static void loadNatives() {
+        PipelineTestSupport.assumeNatives();
+        PipelineTestSupport.assumeAllocationCounters();
+    }
+
+    @Test
+    public void cargoStaysInBudget() {
+        assertWithinBudget(PipelineConfig.CARGO);
+    }
+
+    @Test
+    public void hatchStaysInBudget() {
+        assertWithinBudget(PipelineConfig.HATCH);
+    }
+
+    @Test
+    public void ledStaysInBudget() {
+        assertWithinBudget(PipelineConfig.LED);
+    }
+
+    private static void assertWithinBudget(PipelineConfig config) {
+        // the frames are drawn up front, drawing them allocates
+        SceneGenerator generator = new SceneGenerator(640, 480, 7528)
+                .balls(2).tapePairs(1).noiseBlobs(60, 3).color(config).pixelNoise(16);
+        List<Mat> frames = new ArrayList<>();
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            Mat frame = new Mat();
+            generator.render(frame, i);
+            frames.add(frame);
+        }
+        generator.release();
+        PipelineContext context = new PipelineContext();
+        try {
+            for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                GripPipeline.process(config, context, frames.get(i % DISTINCT_FRAMES), i);
+            }
+
+            long before = PipelineTestSupport.allocatedBytes();
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                GripPipeline.process(config, context, frames.get(i % DISTINCT_FRAMES), i);
+            }
+            long perFrame = (PipelineTestSupport.allocatedBytes() - before) / MEASURED_FRAMES;
+
+            long budget = budget();
+            System.out.printf("%s allocated %d bytes per frame (budget %d)%n", config.name, perFrame, budget);
+            assertTrue(config.name + " allocated " + perFrame + " bytes per frame, over the budget of " + budget,
+                    perFrame <= budget);
+        } finally {
+            context.release();
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    private static long budget() {
+        String value = System.getProperty("vision.allocationBudget", "");
+        return value.isEmpty() ? DEFAULT_BUDGET : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,259 @@
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Micro benchmarks for the pipeline steps, run with {@code ./gradlew bench -Pbench=<name>}. On the
+ * coprocessor, add {@code -PnativeLibs} as for the tests.
+ */
+public final class Benchmarks {
+    private static final int WARMUP = 100;
+    private static final int ITERATIONS = 300;
+    private static final int[][] SIZES = {{320, 240}, {640, 480}, {1280, 720}};
+
+    private Benchmarks() {
+    }
+
+    public static void main(String... args) {
+        String name = args.length > 0 ? args[0] : "";
+        NativeLibraries.load();
+        switch (name) {
+            case "stripes":
+                stripes();
+                break;
+            case "runs":
+                runs();
+                break;
+            case "bitmask":
+                bitmask();
+                break;
+            case "lighting":
+                lighting();
+                break;
+            case "scale":
+                scale();
+                break;
+            default:
+                System.err.println("usage: ./gradlew bench -Pbench=stripes|runs|bitmask|lighting|scale");
+        }
+    }
+
+    /**
+     * @return mean milliseconds per call, after a warmup.
+     */
+    static double time(Runnable body) {
+        for (int i = 0; i < WARMUP; i++) {
+            body.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            body.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+    }
+
+    static boolean identical(Mat a, Mat b) {
+        Mat diff = new Mat();
+        Core.absdiff(a, b, diff);
+        boolean same = Core.countNonZero(diff.reshape(1)) == 0;
+        diff.release();
+        return same;
+    }
+
+    /**
+     * Whole frame OpenCV threshold and erode against the row striped versions.
+     */
+    static void stripes() {
+        PipelineConfig config = PipelineConfig.CARGO;
+        Scalar low = new Scalar(config.hueMin, config.saturationMin, config.valueMin);
+        Scalar high = new Scalar(config.hueMax, config.saturationMax, config.valueMax);
+        Mat kernel = new Mat();
+        Point anchor = new Point(-1, -1);
+        Scalar border = new Scalar(-1);
+        System.out.println("size        threshold ms (seq/striped)  erode ms (seq/striped)  identical");
+        for (int[] size : SIZES) {
+            Mat frame = new Mat(size[1], size[0], CvType.CV_8UC3);
+            Core.randu(frame, 0, 256);
+            Mat hsv = new Mat();
+            Mat seqMask = new Mat();
+            Mat parMask = new Mat();
+            Mat seqEroded = new Mat();
+            Mat parEroded = new Mat();
+
+            double seqThreshold = time(() -> {
+                Imgproc.cvtColor(frame, hsv, Imgproc.COLOR_BGR2HSV);
+                Core.inRange(hsv, low, high, seqMask);
+            });
+            double parThreshold = time(() -> ParallelImageOps.hsvThreshold(frame, low, high, hsv, parMask));
+            double seqErode = time(() ->
+                    Imgproc.erode(seqMask, seqEroded, kernel, anchor, 1, Core.BORDER_CONSTANT, border));
+            double parErode = time(() ->
+                    ParallelImageOps.erode(seqMask, parEroded, kernel, anchor, 1, Core.BORDER_CONSTANT, border));
+
+            System.out.println(String.format("%4dx%-4d   %8.3f / %-8.3f (x%.2f)   %7.3f / %-7.3f (x%.2f)   %b",
+                    size[0], size[1], seqThreshold, parThreshold, seqThreshold / parThreshold,
+                    seqErode, parErode, seqErode / parErode,
+                    identical(seqMask, parMask) && identical(seqEroded, parEroded)));
+
+            frame.release();
+            hsv.release();
+            seqMask.release();
+            parMask.release();
+            seqEroded.release();
+            parEroded.release();
+        }
+    }
+
+    /**
+     * How the threshold and contour stages scale with the number of contours, the vertices per
+     * contour and the image size, on {@link SceneGenerator} frames. Prints CSV for charting; the
+     * contour stage is the whole pipeline's time less the threshold's.
+     */
+    static void scale() {
+        System.out.println("sweep,pipeline,width,height,noiseBlobs,raggedVertices,contoursFound,contoursKept,"
+                + "thresholdMs,contoursMs");
+        for (int blobs : new int[] {0, 50, 100, 200, 400, 800, 1600}) {
+            scaleRow("blobs", PipelineConfig.HATCH, new SceneGenerator(640, 480, 7528)
+                    .color(PipelineConfig.HATCH).balls(2).noiseBlobs(blobs, 4), blobs, 0);
+        }
+        for (int vertices : new int[] {100, 500, 1000, 2000, 5000, 10000}) {
+            scaleRow("vertices", PipelineConfig.HATCH, new SceneGenerator(640, 480, 7528)
+                    .color(PipelineConfig.HATCH).raggedBlobs(4, vertices), 0, vertices);
+        }
+        for (int[] size : SIZES) {
+            // the same density of noise at every size
+            int blobs = size[0] * size[1] / 1536;
+            scaleRow("size", PipelineConfig.HATCH, new SceneGenerator(size[0], size[1], 7528)
+                    .color(PipelineConfig.HATCH).noiseBlobs(blobs, 4).raggedBlobs(2, 1000).pixelNoise(16),
+                    blobs, 1000);
+            scaleRow("size", PipelineConfig.LED, new SceneGenerator(size[0], size[1], 7528)
+                    .color(PipelineConfig.LED).tapePairs(2).noiseBlobs(blobs, 4).pixelNoise(16), blobs, 0);
+        }
+    }
+
+    private static void scaleRow(String sweep, PipelineConfig config, SceneGenerator generator, int blobs,
+                                 int vertices) {
+        Mat frame = new Mat();
+        generator.render(frame, 0);
+        PipelineContext context = new PipelineContext();
+        double thresholdMs = time(() -> GripPipeline.threshold(config, context, frame));
+        double processMs = time(() -> GripPipeline.process(config, context, frame, 0));
+        PipelineResult result = GripPipeline.process(config, context, frame, 0);
+        System.out.println(String.format("%s,%s,%d,%d,%d,%d,%d,%d,%.3f,%.3f", sweep, config.name, frame.cols(),
+                frame.rows(), blobs, vertices, result.contoursFound, result.contoursKept, thresholdMs,
+                processMs - thresholdMs));
+        context.release();
+        generator.release();
+        frame.release();
+    }
+
+    /**
+     * Per frame cost of the lighting statistics, which should stay well under half a millisecond.
+     */
+    static void lighting() {
+        PipelineConfig config = PipelineConfig.CARGO;
+        System.out.println("size        observe ms");
+        for (int[] size : SIZES) {
+            Mat hsv = new Mat(size[1], size[0], CvType.CV_8UC3);
+            Core.randu(hsv, 0, 256);
+            LightingAdapter adapter = new LightingAdapter();
+            double observeMs = time(() -> adapter.observe(config, hsv));
+            System.out.println(String.format("%4dx%-4d   %8.3f", size[0], size[1], observeMs));
+            adapter.release();
+            hsv.release();
+        }
+    }
+
+    /**
+     * Imgproc.erode against the bit packed erode, with and without the cost of packing, checking
+     * the outputs are identical for both the default border and GRIP's constant border of -1.
+     */
+    static void bitmask() {
+        Mat kernel = new Mat();
+        Point anchor = new Point(-1, -1);
+        Scalar gripBorder = new Scalar(-1);
+        System.out.println("size        opencv ms  bits ms  bits+pack ms  identical");
+        for (int[] size : SIZES) {
+            Mat mask = new Mat(size[1], size[0], CvType.CV_8UC1);
+            Core.randu(mask, 0, 256);
+            Imgproc.threshold(mask, mask, 64, 255, Imgproc.THRESH_BINARY);
+            Mat expected = new Mat();
+            Mat actual = new Mat();
+            BitMask packed = new BitMask();
+            BitMask eroded = new BitMask();
+            packed.fromMat(mask);
+
+            double opencvMs = time(() ->
+                    Imgproc.erode(mask, expected, kernel, anchor, 1, Core.BORDER_CONSTANT, gripBorder));
+            double bitsMs = time(() -> eroded.erode(packed, false));
+            double packMs = time(() -> {
+                packed.fromMat(mask);
+                eroded.erode(packed, false);
+                eroded.toMat(actual);
+            });
+            boolean same = identical(expected, actual);
+            Imgproc.erode(mask, expected, kernel);
+            eroded.erode(packed, true);
+            eroded.toMat(actual);
+            same &= identical(expected, actual);
+            Imgproc.dilate(mask, expected, kernel);
+            eroded.dilate(packed, false);
+            eroded.toMat(actual);
+            same &= identical(expected, actual);
+
+            System.out.println(String.format("%4dx%-4d   %8.3f  %7.3f  %12.3f  %b", size[0], size[1],
+                    opencvMs, bitsMs, packMs, same));
+            mask.release();
+            expected.release();
+            actual.release();
+        }
+    }
+
+    /**
+     * Mat threshold, erode and connected components against the run length versions, on a frame
+     * with a single ball in view (the sparse case the runs are meant for).
+     */
+    static void runs() {
+        PipelineConfig config = PipelineConfig.CARGO;
+        Scalar low = new Scalar(config.hueMin, config.saturationMin, config.valueMin);
+        Scalar high = new Scalar(config.hueMax, config.saturationMax, config.valueMax);
+        Mat kernel = new Mat();
+        Point anchor = new Point(-1, -1);
+        Scalar border = new Scalar(-1);
+        System.out.println("size        mat ms   runs ms  speedup  identical");
+        for (int[] size : SIZES) {
+            Mat frame = new Mat(size[1], size[0], CvType.CV_8UC3, new Scalar(40, 40, 40));
+            Imgproc.circle(frame, new Point(size[0] / 2.0, size[1] / 2.0), size[1] / 8, new Scalar(0, 110, 255), -1);
+            Mat hsv = new Mat();
+            Mat mask = new Mat();
+            Mat eroded = new Mat();
+            Mat labels = new Mat();
+            Mat stats = new Mat();
+            Mat centroids = new Mat();
+            RunLengthMask runs = new RunLengthMask();
+            RunLengthMask erodedRuns = new RunLengthMask();
+            RunLengthMask.BlobVisitor ignore = (x, y, width, height, area) -> { };
+
+            double matMs = time(() -> {
+                Imgproc.cvtColor(frame, hsv, Imgproc.COLOR_BGR2HSV);
+                Core.inRange(hsv, low, high, mask);
+                Imgproc.erode(mask, eroded, kernel, anchor, 1, Core.BORDER_CONSTANT, border);
+                Imgproc.connectedComponentsWithStats(eroded, labels, stats, centroids, 8, CvType.CV_32S);
+            });
+            double runsMs = time(() -> {
+                Imgproc.cvtColor(frame, hsv, Imgproc.COLOR_BGR2HSV);
+                runs.threshold(hsv, low, high);
+                erodedRuns.erode(runs);
+                erodedRuns.blobs(ignore);
+            });
+            Mat rendered = new Mat();
+            erodedRuns.toMat(rendered);
+
+            System.out.println(String.format("%4dx%-4d  %7.3f  %7.3f  x%-6.2f  %b", size[0], size[1],
+                    matMs, runsMs, matMs / runsMs, identical(eroded, rendered)));
+
+            for (Mat mat : new Mat[] {frame, hsv, mask, eroded, labels, stats, centroids, rendered}) {
+                mat.release();
+            }
+        }
+    }
+}
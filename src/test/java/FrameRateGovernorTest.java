@@ -0,0 +1,44 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the rates a {@link FrameRateGovernor} picks, and that the CPU scale caps every one of them.
+ */
+public class FrameRateGovernorTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void tracksAtTheFullRate() {
+        FrameRateGovernor governor = new FrameRateGovernor(30, 10, 2, 1);
+        assertEquals(30, governor.targetFps(System.nanoTime()), DELTA);
+    }
+
+    @Test
+    public void cpuScaleSlowsATrackingPipeline() {
+        FrameRateGovernor governor = new FrameRateGovernor(30, 10, 2, 1);
+        governor.setCpuScale(0.5);
+        assertEquals(15, governor.targetFps(System.nanoTime()), DELTA);
+    }
+
+    @Test
+    public void searchesOnceTheTargetIsLost() {
+        FrameRateGovernor governor = new FrameRateGovernor(30, 10, 2, 1);
+        governor.setCpuScale(0.5);
+        long later = System.nanoTime() + 2_000_000_000L;
+        assertEquals(5, governor.targetFps(later), DELTA);
+    }
+
+    @Test
+    public void idlesWhenNotRequested() {
+        FrameRateGovernor governor = new FrameRateGovernor(30, 10, 2, 1);
+        governor.setRequested(false);
+        governor.setCpuScale(0.25);
+        assertEquals(0.5, governor.targetFps(System.nanoTime()), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fullRateMustBeFinite() {
+        new FrameRateGovernor(Double.POSITIVE_INFINITY, 10, 0, 1);
+    }
+}
@@ -0,0 +1,272 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Replays the frame corpus through every built-in pipeline, checking what each finds against the
+ * golden results and its speed and garbage against the recorded baseline.
+ *
+ * <p>The corpus is a fixed set of frames rendered by {@link SceneGenerator}, plus any images
+ * in src/test/resources/corpus (or -PvisionCorpus=dir), with golden.json in that directory.
+ * Regenerate golden.json with -PupdateGolden after a change that is meant to move the results, or
+ * after adding frames, and check the diff. What each pipeline allocates per frame is the same on
+ * every machine and is checked against allocation.json. Speed is per machine, in
+ * baseline-&lt;arch&gt;-&lt;cores&gt;cpu.json; without one for this machine only the speed check
+ * is left out, and the test says so. Both files are written with -PupdateBaseline. A pipeline
+ * fails when it is slower, or allocates more per frame, than its baseline by more than
+ * -PperfTolerance (default 0.25).
+ *
+ * <p>Skipped without the OpenCV natives.
+ */
+public class PipelineRegressionTest {
+    private static final List<PipelineConfig> PIPELINES = Arrays.asList(
+            PipelineConfig.CARGO, PipelineConfig.HATCH, PipelineConfig.LED);
+    /** Hull edges may move a pixel or two between OpenCV builds. */
+    private static final int PIXEL_TOLERANCE = 2;
+    /** Passes over the corpus per timing run, so small corpora still time a few hundred frames. */
+    private static final int MIN_TIMED_FRAMES = 500;
+    /** Allocation is noisy below this many bytes per frame; don't fail on small absolute changes. */
+    private static final long ALLOCATION_SLACK = 1024;
+    private static final int SYNTHETIC_WIDTH = 640;
+    private static final int SYNTHETIC_HEIGHT = 480;
+
+    private static Path corpus;
+    private static final List<String> names = new ArrayList<>();
+    private static final List<Mat> frames = new ArrayList<>();
+
+    @BeforeClass
+    public static void loadCorpus() throws IOException {
+        PipelineTestSupport.assumeNatives();
+        corpus = Paths.get(property("vision.corpus", "src/test/resources/corpus"));
+        renderSynthetic();
+        List<Path> images = new ArrayList<>();
+        if (Files.isDirectory(corpus)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(corpus, "*.{png,jpg,jpeg,bmp}")) {
+                for (Path image : stream) {
+                    images.add(image);
+                }
+            }
+        }
+        images.sort(null);
+        for (Path image : images) {
+            Mat frame = Imgcodecs.imread(image.toString());
+            assertTrue("could not read " + image, !frame.empty());
+            names.add(image.getFileName().toString());
+            frames.add(frame);
+        }
+    }
+
+    /**
+     * The synthetic part of the corpus: the same frames on every machine, one scene of each kind
+     * the pipelines look for, with and without clutter.
+     */
+    private static void renderSynthetic() {
+        SceneGenerator[] generators = {
+            scene(1).balls(1).pixelNoise(12),
+            scene(2).balls(3).pixelNoise(12),
+            scene(3).tapePairs(1).pixelNoise(8),
+            scene(4).tapePairs(2).pixelNoise(8),
+            scene(5).balls(2).tapePairs(1).noiseBlobs(60, 3).color(PipelineConfig.HATCH).pixelNoise(16),
+            scene(6).raggedBlobs(1, 400).color(PipelineConfig.HATCH).pixelNoise(8),
+            scene(7).noiseBlobs(200, 3).pixelNoise(16),
+            scene(8).pixelNoise(24),
+        };
+        String[] kinds = {"ball", "balls", "target", "targets", "cluttered", "ragged", "noise", "empty"};
+        for (int i = 0; i < generators.length; i++) {
+            for (int index = 0; index < 2; index++) {
+                Mat frame = new Mat();
+                generators[i].render(frame, index);
+                names.add(String.format("synthetic-%s-%d", kinds[i], index));
+                frames.add(frame);
+            }
+            generators[i].release();
+        }
+    }
+
+    private static SceneGenerator scene(long seed) {
+        return new SceneGenerator(SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT, seed);
+    }
+
+    @AfterClass
+    public static void releaseCorpus() {
+        for (Mat frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        names.clear();
+    }
+
+    @Test
+    public void detectionsMatchGolden() throws IOException {
+        JsonObject actual = new JsonObject();
+        for (PipelineConfig config : PIPELINES) {
+            JsonObject results = new JsonObject();
+            PipelineContext context = new PipelineContext();
+            try {
+                for (int i = 0; i < frames.size(); i++) {
+                    results.add(names.get(i), summarize(GripPipeline.process(config, context, frames.get(i), 0)));
+                }
+            } finally {
+                context.release();
+            }
+            actual.add(config.name, results);
+        }
+
+        Path golden = corpus.resolve("golden.json");
+        if (Boolean.getBoolean("vision.updateGolden")) {
+            write(golden, actual);
+            return;
+        }
+        assertTrue("no " + golden + " yet, run the tests with -PupdateGolden and check it in", Files.exists(golden));
+        JsonObject expected = read(golden);
+        for (PipelineConfig config : PIPELINES) {
+            assertTrue("golden.json has no results for " + config.name, expected.has(config.name));
+            JsonObject expectedResults = expected.getAsJsonObject(config.name);
+            JsonObject actualResults = actual.getAsJsonObject(config.name);
+            for (String frame : names) {
+                assertTrue("golden.json has no " + config.name + " result for " + frame, expectedResults.has(frame));
+                compare(config.name + " " + frame, expectedResults.getAsJsonObject(frame),
+                        actualResults.getAsJsonObject(frame));
+            }
+        }
+    }
+
+    @Test
+    public void performanceWithinBaseline() throws IOException {
+        PipelineTestSupport.assumeAllocationCounters();
+        int passes = Math.max(1, (MIN_TIMED_FRAMES + frames.size() - 1) / frames.size());
+        JsonObject actual = new JsonObject();
+        for (PipelineConfig config : PIPELINES) {
+            PipelineContext context = new PipelineContext();
+            try {
+                // one untimed pass to compile the code and size the context's Mats
+                for (Mat frame : frames) {
+                    GripPipeline.process(config, context, frame, 0);
+                }
+                long bytesBefore = PipelineTestSupport.allocatedBytes();
+                long start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    for (Mat frame : frames) {
+                        GripPipeline.process(config, context, frame, 0);
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                long processed = (long) passes * frames.size();
+                JsonObject measured = new JsonObject();
+                measured.addProperty("framesPerSecond", processed / (elapsed / 1e9));
+                measured.addProperty("bytesPerFrame", (PipelineTestSupport.allocatedBytes() - bytesBefore) / processed);
+                actual.add(config.name, measured);
+                System.out.printf("%s: %.1f fps, %d bytes per frame%n", config.name,
+                        measured.get("framesPerSecond").getAsDouble(), measured.get("bytesPerFrame").getAsLong());
+            } finally {
+                context.release();
+            }
+        }
+
+        Path allocation = corpus.resolve("allocation.json");
+        Path speed = corpus.resolve("baseline-" + System.getProperty("os.arch") + "-"
+                + Runtime.getRuntime().availableProcessors() + "cpu.json");
+        if (Boolean.getBoolean("vision.updateBaseline")) {
+            write(allocation, select(actual, "bytesPerFrame"));
+            write(speed, select(actual, "framesPerSecond"));
+            System.out.println("Recorded performance baselines " + allocation + " and " + speed);
+            return;
+        }
+        double tolerance = Double.parseDouble(property("vision.perfTolerance", "0.25"));
+        assertTrue("no allocation baseline " + allocation + ", run the tests with -PupdateBaseline to record one",
+                Files.exists(allocation));
+        JsonObject expectedBytes = read(allocation);
+        for (PipelineConfig config : PIPELINES) {
+            assertTrue("allocation.json has no result for " + config.name, expectedBytes.has(config.name));
+            long baselineBytes = expectedBytes.get(config.name).getAsLong();
+            long bytes = actual.getAsJsonObject(config.name).get("bytesPerFrame").getAsLong();
+            assertTrue(String.format("%s allocates %d bytes per frame, up from %d", config.name, bytes, baselineBytes),
+                    bytes <= baselineBytes * (1 + tolerance) + ALLOCATION_SLACK);
+        }
+
+        if (!Files.exists(speed)) {
+            System.err.println("SPEED NOT CHECKED: no baseline " + speed + " for this machine, run the tests"
+                    + " with -PupdateBaseline to record one");
+            return;
+        }
+        JsonObject expectedFps = read(speed);
+        for (PipelineConfig config : PIPELINES) {
+            if (!expectedFps.has(config.name)) {
+                continue;
+            }
+            double baselineFps = expectedFps.get(config.name).getAsDouble();
+            double fps = actual.getAsJsonObject(config.name).get("framesPerSecond").getAsDouble();
+            assertTrue(String.format("%s runs at %.1f fps, down from %.1f", config.name, fps, baselineFps),
+                    fps >= baselineFps * (1 - tolerance));
+        }
+    }
+
+    /**
+     * @return One measurement for each pipeline, keyed by pipeline name.
+     */
+    private static JsonObject select(JsonObject measurements, String key) {
+        JsonObject selected = new JsonObject();
+        for (PipelineConfig config : PIPELINES) {
+            selected.add(config.name, measurements.getAsJsonObject(config.name).get(key));
+        }
+        return selected;
+    }
+
+    private static JsonObject summarize(PipelineResult result) {
+        JsonObject summary = new JsonObject();
+        summary.addProperty("found", result.found());
+        summary.addProperty("contoursFound", result.contoursFound);
+        summary.addProperty("contoursKept", result.contoursKept);
+        summary.addProperty("hulls", result.hullCount);
+        summary.addProperty("minX", result.minX);
+        summary.addProperty("maxX", result.maxX);
+        summary.addProperty("targets", result.targets.size());
+        return summary;
+    }
+
+    private static void compare(String what, JsonObject expected, JsonObject actual) {
+        assertEquals(what + " found", expected.get("found").getAsBoolean(), actual.get("found").getAsBoolean());
+        assertEquals(what + " hulls", expected.get("hulls").getAsInt(), actual.get("hulls").getAsInt());
+        assertEquals(what + " contoursKept", expected.get("contoursKept").getAsInt(),
+                actual.get("contoursKept").getAsInt());
+        assertEquals(what + " targets", expected.get("targets").getAsInt(), actual.get("targets").getAsInt());
+        assertEquals(what + " minX", expected.get("minX").getAsInt(), actual.get("minX").getAsInt(),
+                PIXEL_TOLERANCE);
+        assertEquals(what + " maxX", expected.get("maxX").getAsInt(), actual.get("maxX").getAsInt(),
+                PIXEL_TOLERANCE);
+    }
+
+    private static JsonObject read(Path file) throws IOException {
+        return new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static void write(Path file, JsonObject json) throws IOException {
+        Files.write(file, new GsonBuilder().setPrettyPrinting().create().toJson(json).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A system property Gradle passes on, treating empty as unset.
+     */
+    private static String property(String name, String fallback) {
+        String value = System.getProperty(name, "");
+        return value.isEmpty() ? fallback : value;
+    }
+}
@@ -0,0 +1,49 @@
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * What the pipeline tests share: skipping where OpenCV can't run, and counting allocation.
+ */
+final class PipelineTestSupport {
+    private PipelineTestSupport() {
+    }
+
+    /**
+     * Skip the calling test unless the OpenCV natives load. Gradle points java.library.path at the
+     * desktop natives it fetches, or at -PnativeLibs; see build.gradle.
+     */
+    static void assumeNatives() {
+        try {
+            NativeLibraries.load();
+        } catch (UnsatisfiedLinkError e) {
+            assumeTrue("OpenCV natives not on java.library.path: " + e.getMessage(), false);
+        }
+    }
+
+    /**
+     * Skip the calling test unless the JVM counts the bytes each thread allocates.
+     */
+    static void assumeAllocationCounters() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("no per-thread allocation counters", bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * @return Bytes every live thread has allocated so far, so the {@link ParallelImageOps} workers
+     *     that run a frame's stripes are counted with the thread that called the pipeline; only
+     *     meaningful after {@link #assumeAllocationCounters()}.
+     */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            // -1 for a thread that exited after the ids were read
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,154 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.wpi.cscore.VideoCamera;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how a {@link ProfileMultiplexer} hands the camera between profiles: whose turn it is,
+ * how many frames a runner throws away after a switch, and that a frame grabbed after its turn
+ * ran out doesn't count. The camera only records the settings it is given.
+ */
+public class ProfileMultiplexerTest {
+    private static final long JOIN_MILLIS = 5000;
+
+    private final List<String> settings = Collections.synchronizedList(new ArrayList<>());
+    private ProfileMultiplexer multiplexer;
+
+    @Before
+    public void createMultiplexer() {
+        VideoCamera camera = new VideoCamera(0) {
+            @Override
+            public void setExposureAuto() {
+                settings.add("exposure auto");
+            }
+
+            @Override
+            public void setExposureManual(int value) {
+                settings.add("exposure " + value);
+            }
+
+            @Override
+            public void setWhiteBalanceAuto() {
+                settings.add("white balance auto");
+            }
+
+            @Override
+            public void setWhiteBalanceManual(int value) {
+                settings.add("white balance " + value);
+            }
+
+            @Override
+            public void setBrightness(int value) {
+                settings.add("brightness " + value);
+            }
+        };
+        CameraConfig base = new CameraConfig("test", "/dev/null", null, 320, 240, 30, null, null, null,
+                Collections.<String, Object>emptyMap(), Collections.<String, Object>emptyMap());
+        multiplexer = new ProfileMultiplexer(camera, base);
+    }
+
+    @Test
+    public void firstTurnSwitchesAndSettles() throws InterruptedException {
+        ProfileMultiplexer.Seat seat = multiplexer.seat();
+        multiplexer.awaitTurn(seat, CaptureProfile.DARK);
+        assertEquals(ProfileMultiplexer.SETTLE_FRAMES, seat.settleFrames);
+        assertEquals(settingsOf(CaptureProfile.DARK), settings);
+        assertTrue(multiplexer.frameTaken(seat));
+        assertEquals(0, seat.settleFrames);
+    }
+
+    @Test
+    public void turnsAlternateBetweenProfiles() throws InterruptedException {
+        ProfileMultiplexer.Seat normal = multiplexer.seat();
+        ProfileMultiplexer.Seat dark = multiplexer.seat();
+        multiplexer.awaitTurn(normal, CaptureProfile.NORMAL);
+        settings.clear();
+
+        Thread darkRunner = awaitInBackground(dark, CaptureProfile.DARK);
+        for (int i = 0; i < ProfileMultiplexer.FRAMES_PER_TURN; i++) {
+            assertTrue("dark took the camera during normal's turn", darkRunner.isAlive());
+            multiplexer.awaitTurn(normal, CaptureProfile.NORMAL);
+            assertTrue(multiplexer.frameTaken(normal));
+        }
+        join(darkRunner);
+        assertEquals(settingsOf(CaptureProfile.DARK), settings);
+        assertEquals(ProfileMultiplexer.SETTLE_FRAMES, dark.settleFrames);
+
+        // and back: the camera has to settle again after switching to normal
+        settings.clear();
+        Thread normalRunner = awaitInBackground(normal, CaptureProfile.NORMAL);
+        for (int i = 0; i < ProfileMultiplexer.FRAMES_PER_TURN; i++) {
+            multiplexer.awaitTurn(dark, CaptureProfile.DARK);
+            assertTrue(multiplexer.frameTaken(dark));
+        }
+        join(normalRunner);
+        assertEquals(settingsOf(CaptureProfile.NORMAL), settings);
+        assertEquals(ProfileMultiplexer.SETTLE_FRAMES, normal.settleFrames);
+    }
+
+    @Test
+    public void joiningARunningTurnDoesNotSettle() throws InterruptedException {
+        ProfileMultiplexer.Seat first = multiplexer.seat();
+        ProfileMultiplexer.Seat second = multiplexer.seat();
+        multiplexer.awaitTurn(first, CaptureProfile.DARK);
+        multiplexer.awaitTurn(second, CaptureProfile.DARK);
+        assertEquals(ProfileMultiplexer.SETTLE_FRAMES, first.settleFrames);
+        assertEquals(0, second.settleFrames);
+        assertEquals("the profile was applied again", settingsOf(CaptureProfile.DARK), settings);
+    }
+
+    @Test
+    public void frameFromAnExpiredTurnIsDropped() throws InterruptedException {
+        ProfileMultiplexer.Seat slow = multiplexer.seat();
+        ProfileMultiplexer.Seat waiting = multiplexer.seat();
+        long start = System.nanoTime();
+        multiplexer.awaitTurn(slow, CaptureProfile.NORMAL);
+
+        // the slow runner never reports its frame, so the waiting one gets the camera at the timeout
+        join(awaitInBackground(waiting, CaptureProfile.DARK));
+        assertTrue("the turn ended before its timeout",
+                System.nanoTime() - start >= ProfileMultiplexer.TURN_TIMEOUT_NANOS);
+        assertFalse("a frame grabbed after the switch counted", multiplexer.frameTaken(slow));
+        assertTrue(multiplexer.frameTaken(waiting));
+    }
+
+    /**
+     * @return A thread waiting for the seat's turn at the profile, once it is waiting.
+     */
+    private Thread awaitInBackground(ProfileMultiplexer.Seat seat, CaptureProfile profile) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                multiplexer.awaitTurn(seat, profile);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "await " + profile.name);
+        thread.start();
+        while (thread.isAlive() && thread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    private static void join(Thread thread) throws InterruptedException {
+        thread.join(JOIN_MILLIS);
+        assertFalse(thread.getName() + " never got its turn", thread.isAlive());
+    }
+
+    private static List<String> settingsOf(CaptureProfile profile) {
+        List<String> expected = new ArrayList<>();
+        expected.add(profile.exposure != null ? "exposure " + profile.exposure.value : "exposure auto");
+        expected.add(profile.whiteBalance != null ? "white balance " + profile.whiteBalance.value : "white balance auto");
+        if (profile.brightness != null) {
+            expected.add("brightness " + profile.brightness);
+        }
+        return expected;
+    }
+}
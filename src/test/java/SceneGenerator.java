@@ -0,0 +1,219 @@
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Renders synthetic BGR frames for scale testing: cargo balls, pairs of vision tape strips at
+ * +/-14.5 degrees, small noise blobs, ragged blobs with thousands of vertices, and background
+ * pixel noise, at any resolution. The same seed and index always render the same frame, and
+ * {@link #render(Mat, long)} reports where the balls, strips and ragged blobs went.
+ *
+ * <p>Balls, tape pairs and ragged blobs each get their own cell of a grid over the frame so they
+ * never touch; noise blobs go anywhere underneath them. Colors are the middle of a pipeline's
+ * HSV range: cargo for balls, the LED ring's for tape, and {@link #color(PipelineConfig)} (cargo
+ * by default) for noise and ragged blobs.
+ */
+public final class SceneGenerator {
+    private final int width;
+    private final int height;
+    private final long seed;
+    private int balls;
+    private int tapePairs;
+    private int noiseBlobs;
+    private int noiseRadius = 3;
+    private int raggedBlobs;
+    private int raggedVertices;
+    private int pixelNoise;
+    private PipelineConfig blobColor = PipelineConfig.CARGO;
+    private final Mat noise = new Mat();
+
+    /**
+     * Where the objects of one rendered frame are.
+     */
+    public static final class Scene {
+        public final List<Rect> balls = new ArrayList<>();
+        public final List<Rect> strips = new ArrayList<>();
+        public final List<Rect> raggedBlobs = new ArrayList<>();
+    }
+
+    public SceneGenerator(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+
+    public SceneGenerator balls(int count) {
+        balls = count;
+        return this;
+    }
+
+    /**
+     * @param count pairs of strips, each a 2019 vision target.
+     */
+    public SceneGenerator tapePairs(int count) {
+        tapePairs = count;
+        return this;
+    }
+
+    /**
+     * @param count small round blobs, the kind the contour filter has to reject one by one.
+     * @param radius their largest radius in pixels.
+     */
+    public SceneGenerator noiseBlobs(int count, int radius) {
+        noiseBlobs = count;
+        noiseRadius = Math.max(1, radius);
+        return this;
+    }
+
+    /**
+     * @param count star shaped blobs whose outline zig-zags through the given number of vertices.
+     */
+    public SceneGenerator raggedBlobs(int count, int vertices) {
+        raggedBlobs = count;
+        raggedVertices = Math.max(6, vertices);
+        return this;
+    }
+
+    /**
+     * @param amplitude largest change of each background pixel channel, 0 for a flat background.
+     */
+    public SceneGenerator pixelNoise(int amplitude) {
+        pixelNoise = amplitude;
+        return this;
+    }
+
+    /**
+     * Color noise and ragged blobs to match this pipeline.
+     */
+    public SceneGenerator color(PipelineConfig config) {
+        blobColor = config;
+        return this;
+    }
+
+    /**
+     * Render the index'th frame of this generator's sequence.
+     * @param frame reallocated to the generator's size if needed.
+     * @throws IllegalArgumentException if the balls, tape pairs and ragged blobs don't fit.
+     */
+    public Scene render(Mat frame, long index) {
+        Random random = new Random(seed * 1_000_003L + index);
+        frame.create(height, width, CvType.CV_8UC3);
+        Scalar background = new Scalar(40, 40, 40);
+        if (pixelNoise > 0) {
+            frame.setTo(new Scalar(40 - pixelNoise, 40 - pixelNoise, 40 - pixelNoise));
+            Core.setRNGSeed(random.nextInt());
+            noise.create(height, width, CvType.CV_8UC3);
+            Core.randu(noise, 0, 2 * pixelNoise + 1);
+            Core.add(frame, noise, frame);
+        } else {
+            frame.setTo(background);
+        }
+
+        Scalar ballFill = StagedPipelineRunner.fillColor(PipelineConfig.CARGO);
+        Scalar tapeFill = StagedPipelineRunner.fillColor(PipelineConfig.LED);
+        Scalar blobFill = StagedPipelineRunner.fillColor(blobColor);
+        for (int i = 0; i < noiseBlobs; i++) {
+            Point center = new Point(random.nextInt(width), random.nextInt(height));
+            Imgproc.circle(frame, center, 1 + random.nextInt(noiseRadius), blobFill, -1);
+        }
+
+        // one object per cell, in a shuffled order of cells
+        int objects = balls + tapePairs + raggedBlobs;
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(objects * width / (double) height)));
+        int rows = Math.max(1, (objects + columns - 1) / columns);
+        int cellWidth = width / columns;
+        int cellHeight = height / rows;
+        if (objects > 0 && (cellWidth < 16 || cellHeight < 16)) {
+            throw new IllegalArgumentException(objects + " objects don't fit in " + width + "x" + height);
+        }
+        List<Integer> cells = new ArrayList<>();
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(i);
+        }
+        Collections.shuffle(cells, random);
+
+        Scene scene = new Scene();
+        for (int i = 0; i < objects; i++) {
+            Rect cell = new Rect(cells.get(i) % columns * cellWidth, cells.get(i) / columns * cellHeight,
+                    cellWidth, cellHeight);
+            if (i < balls) {
+                scene.balls.add(drawBall(frame, cell, ballFill, random));
+            } else if (i < balls + tapePairs) {
+                drawTapePair(frame, cell, tapeFill, random, scene.strips);
+            } else {
+                scene.raggedBlobs.add(drawRagged(frame, cell, blobFill, random));
+            }
+        }
+        return scene;
+    }
+
+    private static Rect drawBall(Mat frame, Rect cell, Scalar fill, Random random) {
+        int largest = Math.min(cell.width, cell.height) * 2 / 5;
+        int radius = Math.max(3, largest / 2 + random.nextInt(Math.max(1, largest / 2)));
+        Point center = new Point(cell.x + radius + random.nextInt(Math.max(1, cell.width - 2 * radius)),
+                cell.y + radius + random.nextInt(Math.max(1, cell.height - 2 * radius)));
+        Imgproc.circle(frame, center, radius, fill, -1);
+        return new Rect((int) center.x - radius, (int) center.y - radius, 2 * radius + 1, 2 * radius + 1);
+    }
+
+    /**
+     * A 2019 target: two 2 x 5.5 inch strips tilted 14.5 degrees towards each other at the top,
+     * about 8 inches apart, scaled to fill most of the cell.
+     */
+    private static void drawTapePair(Mat frame, Rect cell, Scalar fill, Random random, List<Rect> strips) {
+        // the target is about 11 x 6 inches
+        double inch = Math.min(cell.width * 0.8 / 11.5, cell.height * 0.8 / 6) * (0.7 + 0.3 * random.nextDouble());
+        Point center = new Point(cell.x + cell.width / 2.0, cell.y + cell.height / 2.0);
+        for (int side = -1; side <= 1; side += 2) {
+            Point stripCenter = new Point(center.x + side * 3.65 * inch, center.y);
+            RotatedRect strip = new RotatedRect(stripCenter, new Size(2 * inch, 5.5 * inch),
+                    side < 0 ? 14.5 : -14.5);
+            Point[] corners = new Point[4];
+            strip.points(corners);
+            MatOfPoint polygon = new MatOfPoint(corners);
+            Imgproc.fillConvexPoly(frame, polygon, fill);
+            polygon.release();
+            strips.add(strip.boundingRect());
+        }
+    }
+
+    /**
+     * A star whose points alternate between two radii, with some jitter, so its contour keeps
+     * every vertex and its hull only the outer ones.
+     */
+    private Rect drawRagged(Mat frame, Rect cell, Scalar fill, Random random) {
+        double outer = Math.min(cell.width, cell.height) * 0.45;
+        double inner = outer * 0.8;
+        int[] points = new int[raggedVertices * 2];
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < raggedVertices; i++) {
+            double angle = 2 * Math.PI * i / raggedVertices;
+            double radius = (i % 2 == 0 ? outer : inner) - random.nextDouble() * outer * 0.05;
+            int x = (int) Math.round(cell.x + cell.width / 2.0 + radius * Math.cos(angle));
+            int y = (int) Math.round(cell.y + cell.height / 2.0 + radius * Math.sin(angle));
+            points[i * 2] = x;
+            points[i * 2 + 1] = y;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        MatOfPoint polygon = new MatOfPoint();
+        polygon.create(raggedVertices, 1, CvType.CV_32SC2);
+        polygon.put(0, 0, points);
+        Imgproc.fillPoly(frame, Collections.singletonList(polygon), fill);
+        polygon.release();
+        return new Rect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    public void release() {
+        noise.release();
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Checks that {@link SceneGenerator} is deterministic and draws what it reports, and that the
+ * contour stages handle its worst cases: hundreds of noise blobs and contours with thousands of
+ * vertices. Skipped without the OpenCV natives.
+ */
+public class SceneGeneratorTest {
+    /** Rasterizing and thresholding can move an edge by a pixel or two. */
+    private static final int PIXEL_TOLERANCE = 2;
+
+    private Mat frame;
+    private PipelineContext context;
+
+    @BeforeClass
+    public static void loadNatives() {
+        PipelineTestSupport.assumeNatives();
+    }
+
+    @Before
+    public void allocate() {
+        frame = new Mat();
+        context = new PipelineContext();
+    }
+
+    @After
+    public void release() {
+        frame.release();
+        context.release();
+    }
+
+    @Test
+    public void sameSeedAndIndexRenderTheSameFrame() {
+        SceneGenerator generator = scene(640, 480).balls(3).tapePairs(1).noiseBlobs(100, 4).pixelNoise(16);
+        Mat again = new Mat();
+        Mat next = new Mat();
+        generator.render(frame, 3);
+        generator.render(again, 3);
+        generator.render(next, 4);
+        assertEquals(0, differentPixels(frame, again));
+        assertTrue(differentPixels(frame, next) > 0);
+        again.release();
+        next.release();
+        generator.release();
+    }
+
+    @Test
+    public void rendersAtAnyResolution() {
+        for (int[] size : new int[][] {{160, 120}, {640, 480}, {1920, 1080}}) {
+            scene(size[0], size[1]).balls(2).tapePairs(1).render(frame, 0);
+            assertEquals(size[0], frame.cols());
+            assertEquals(size[1], frame.rows());
+        }
+    }
+
+    @Test
+    public void cargoFindsTheBall() {
+        SceneGenerator.Scene scene = scene(640, 480).balls(1).pixelNoise(16).render(frame, 0);
+        PipelineResult result = GripPipeline.process(PipelineConfig.CARGO, context, frame, 0);
+        Rect ball = scene.balls.get(0);
+        assertTrue(result.found());
+        assertEquals(ball.x, result.minX, PIXEL_TOLERANCE);
+        assertEquals(ball.x + ball.width - 1, result.maxX, PIXEL_TOLERANCE);
+    }
+
+    @Test
+    public void ledPairsTheTape() {
+        SceneGenerator.Scene scene = scene(640, 480).tapePairs(1).render(frame, 0);
+        PipelineResult result = GripPipeline.process(PipelineConfig.LED, context, frame, 0);
+        assertEquals(2, scene.strips.size());
+        assertEquals(2, result.hullCount);
+        assertEquals(1, result.targets.size());
+    }
+
+    @Test
+    public void noiseBlobsAreAllFoundAndAllRejected() {
+        SceneGenerator generator = scene(640, 480).color(PipelineConfig.HATCH).noiseBlobs(400, 3);
+        generator.render(frame, 0);
+        PipelineResult result = GripPipeline.process(PipelineConfig.HATCH, context, frame, 0);
+        // a few overlap and merge
+        assertTrue("only " + result.contoursFound + " contours", result.contoursFound > 300);
+        // kept counts what the hierarchy pruning leaves for the filter; none pass the filter
+        assertEquals(0, result.hullCount);
+        assertFalse(result.found());
+    }
+
+    @Test
+    public void raggedBlobKeepsItsOutline() {
+        SceneGenerator.Scene scene = scene(640, 480).color(PipelineConfig.HATCH).raggedBlobs(1, 4000)
+                .render(frame, 0);
+        PipelineResult result = GripPipeline.process(PipelineConfig.HATCH, context, frame, 0);
+        Rect blob = scene.raggedBlobs.get(0);
+        assertEquals(1, result.contoursKept);
+        HullBuffer hulls = context.hulls();
+        assertEquals(1, hulls.size());
+        // the hull of a jittered outline keeps only its outermost points, but far more than a box's four
+        assertTrue("only " + hulls.count(0) + " hull points", hulls.count(0) > 32);
+        assertEquals(blob.x, result.minX, PIXEL_TOLERANCE);
+        assertEquals(blob.x + blob.width - 1, result.maxX, PIXEL_TOLERANCE);
+        assertEquals(blob.area(), hulls.area(0), blob.area() * 0.4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyObjectsForTheFrame() {
+        scene(64, 48).balls(100).render(frame, 0);
+    }
+
+    private static SceneGenerator scene(int width, int height) {
+        return new SceneGenerator(width, height, 7528);
+    }
+
+    private static int differentPixels(Mat a, Mat b) {
+        Mat diff = new Mat();
+        Core.absdiff(a, b, diff);
+        int different = Core.countNonZero(diff.reshape(1));
+        diff.release();
+        return different;
+    }
+}